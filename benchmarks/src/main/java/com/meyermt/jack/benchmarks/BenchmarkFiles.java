@@ -0,0 +1,31 @@
+package com.meyermt.jack.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * File helpers for benchmarks that need a scratch directory.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param dir the directory to delete
+     * @throws IOException if something can't be deleted
+     */
+    public static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
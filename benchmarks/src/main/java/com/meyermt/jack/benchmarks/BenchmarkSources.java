@@ -0,0 +1,111 @@
+package com.meyermt.jack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes Jack classes of a chosen size for the benchmarks to compile. The classes are always the same for the same
+ * size, so runs can be compared with each other.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class BenchmarkSources {
+
+    private BenchmarkSources() {
+    }
+
+    /**
+     * Makes the lines of a class with the given number of subroutines, each with a mix of statements and expressions.
+     *
+     * @param className the class name
+     * @param subroutines how many subroutines the class has
+     * @return the lines of source
+     */
+    public static List<String> classLines(String className, int subroutines) {
+        List<String> lines = new ArrayList<>();
+        lines.add("/** Generated for benchmarking. */");
+        lines.add("class " + className + " {");
+        lines.add("    field int count, total;");
+        lines.add("    static Array cache;");
+        lines.add("");
+        lines.add("    constructor " + className + " new() {");
+        lines.add("        let count = 0;");
+        lines.add("        let total = 0;");
+        lines.add("        return this;");
+        lines.add("    }");
+        for (int i = 0; i < subroutines; i++) {
+            lines.add("");
+            lines.add("    // subroutine " + i);
+            lines.add("    method int work" + i + "(int a, int b) {");
+            lines.add("        var int i, sum;");
+            lines.add("        var Array values;");
+            lines.add("        let values = Array.new(" + (i % 10 + 1) + ");");
+            lines.add("        let i = 0;");
+            lines.add("        while (i < " + (i % 10 + 1) + ") {");
+            lines.add("            let values[i] = (a * i) + (b / 2) - " + i + ";");
+            lines.add("            if ((values[i] > 100) & ~(a = b)) {");
+            lines.add("                let sum = sum + values[i];");
+            lines.add("            } else {");
+            lines.add("                let sum = sum - 1;");
+            lines.add("            }");
+            lines.add("            let i = i + 1;");
+            lines.add("        }");
+            lines.add("        let count = count + 1;");
+            lines.add("        let total = total + sum;");
+            lines.add("        do Output.printString(\"work " + i + " done\");");
+            lines.add("        do values.dispose();");
+            lines.add("        return sum;");
+            lines.add("    }");
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Makes the lines of a class whose one function nests expressions as deep as asked, in each way an expression can
+     * nest: in parentheses, under unary minus, as an array index and as a call argument. Compilers that recurse once
+     * per level of nesting run out of stack on these long before the Jack code gets unreasonable for a generator to
+     * write.
+     *
+     * @param className the class name
+     * @param depth how many levels each expression nests
+     * @return the lines of source
+     */
+    public static List<String> nestedClassLines(String className, int depth) {
+        List<String> lines = new ArrayList<>();
+        lines.add("/** Generated for benchmarking deeply nested expressions. */");
+        lines.add("class " + className + " {");
+        lines.add("    function int nested(int a) {");
+        lines.add("        var int x;");
+        lines.add("        var Array values;");
+        lines.add("        let x = " + repeat("(", depth) + "a" + repeat(" + 1)", depth) + ";");
+        lines.add("        let x = " + repeat("-", depth) + "a;");
+        lines.add("        let x = " + repeat("values[", depth) + "a" + repeat("]", depth) + ";");
+        lines.add("        let x = " + repeat("Math.abs(", depth) + "a" + repeat(")", depth) + ";");
+        lines.add("        return x;");
+        lines.add("    }");
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Makes a class as a single string of source.
+     *
+     * @param className the class name
+     * @param subroutines how many subroutines the class has
+     * @return the source
+     */
+    public static String classSource(String className, int subroutines) {
+        return String.join("\n", classLines(className, subroutines)) + "\n";
+    }
+
+    /*
+        repeats a piece of source the given number of times
+     */
+    private static String repeat(String piece, int times) {
+        StringBuilder builder = new StringBuilder(piece.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(piece);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.CompilationEngine;
+import com.meyermt.jack.JackTokenizer;
+import com.meyermt.jack.TokenStream;
+import com.meyermt.jack.VMCode;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling one already tokenized class, from the XML token document and from a token stream, with and
+ * without building the parse tree.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilationEngineBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int subroutines;
+
+    private Map.Entry<String, Document> fileToDocument;
+    private Map.Entry<String, TokenStream> fileToTokens;
+
+    @Setup
+    public void setUp() {
+        Map.Entry<String, List<String>> fileToLines =
+                new AbstractMap.SimpleEntry<>("Bench.jack", BenchmarkSources.classLines("Bench", subroutines));
+        fileToDocument = new JackTokenizer().tokenize(fileToLines);
+        fileToTokens = new JackTokenizer().tokenizeToStream(fileToLines);
+    }
+
+    @Benchmark
+    public Map.Entry<String, VMCode> compile() {
+        return new CompilationEngine(false).compile(fileToDocument);
+    }
+
+    @Benchmark
+    public Map.Entry<String, VMCode> compileStream() {
+        fileToTokens.getValue().rewind();
+        return new CompilationEngine(false).compileStream(fileToTokens);
+    }
+
+    @Benchmark
+    public Map.Entry<String, VMCode> compileStreamWithParseTree() {
+        fileToTokens.getValue().rewind();
+        return new CompilationEngine(true).compileStream(fileToTokens);
+    }
+}
@@ -0,0 +1,574 @@
+package com.meyermt.jack.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a whole Jack program of any size for measuring the compiler at scale. The same seed and settings always
+ * give the same source, on any machine, and each class is worked out from the seed and its own index, so changing the
+ * file count doesn't change the classes the two programs have in common. What can be tuned:
+ * - the number of classes, each with a run function that Main.main calls
+ * - subroutines per class, statements per subroutine and locals per subroutine
+ * - how deeply statements and expressions nest
+ * - the share of expression terms that are variables rather than constants
+ * - how long string literals are
+ * Subroutines only call subroutines declared before them, in their own class or an earlier one, and every loop counts
+ * up to a small constant, so the program would finish if run. Division is only ever by a constant that isn't zero.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class CorpusGenerator {
+
+    private static final String USAGE = "Usage: CorpusGenerator [--seed N] [--files N] [--subroutines N] "
+            + "[--statements N] [--locals N] [--statement-depth N] [--expression-depth N] [--identifier-density D] "
+            + "[--string-length N] <output directory>";
+    private static final String OPS = "+-*&|<>=";
+    private static final String STRING_CHARS = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 .,:;!?";
+    private static final int FIELDS = 4;
+    private static final int STATICS = 2;
+    private static final int ARRAY_SIZE = 8;
+    private static final int MAX_ARGS = 3;
+    private static final int MAX_LOOP = 4;
+
+    private final long seed;
+    private int files = 10;
+    private int subroutines = 20;
+    private int statements = 20;
+    private int locals = 8;
+    private int statementDepth = 3;
+    private int expressionDepth = 3;
+    private double identifierDensity = 0.5;
+    private int stringLength = 20;
+
+    /**
+     * Instantiates a new corpus generator with the default settings.
+     *
+     * @param seed the seed everything generated is worked out from
+     */
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets how many classes there are, not counting Main.
+     *
+     * @param files the class count
+     */
+    public void setFiles(int files) {
+        this.files = requireAtLeast("files", files, 1);
+    }
+
+    /**
+     * Sets how many subroutines each class has, not counting its constructor and run function.
+     *
+     * @param subroutines the subroutine count
+     */
+    public void setSubroutines(int subroutines) {
+        this.subroutines = requireAtLeast("subroutines", subroutines, 0);
+    }
+
+    /**
+     * Sets how many statements each subroutine has, counting the ones nested in if and while statements.
+     *
+     * @param statements the statement count
+     */
+    public void setStatements(int statements) {
+        this.statements = requireAtLeast("statements", statements, 0);
+    }
+
+    /**
+     * Sets how many int locals each subroutine declares, besides its loop counters and array.
+     *
+     * @param locals the local count
+     */
+    public void setLocals(int locals) {
+        this.locals = requireAtLeast("locals", locals, 1);
+    }
+
+    /**
+     * Sets how deeply if and while statements may nest inside each other.
+     *
+     * @param statementDepth the nesting depth, 0 for no if or while statements
+     */
+    public void setStatementDepth(int statementDepth) {
+        this.statementDepth = requireAtLeast("statement depth", statementDepth, 0);
+    }
+
+    /**
+     * Sets how deeply parenthesized expressions may nest inside each other.
+     *
+     * @param expressionDepth the nesting depth, 0 for no parentheses
+     */
+    public void setExpressionDepth(int expressionDepth) {
+        this.expressionDepth = requireAtLeast("expression depth", expressionDepth, 0);
+    }
+
+    /**
+     * Sets the share of expression terms that are variables, the rest being constants and calls.
+     *
+     * @param identifierDensity from 0 to 1
+     */
+    public void setIdentifierDensity(double identifierDensity) {
+        if (identifierDensity < 0 || identifierDensity > 1) {
+            throw new IllegalArgumentException("Identifier density must be from 0 to 1: " + identifierDensity);
+        }
+        this.identifierDensity = identifierDensity;
+    }
+
+    /**
+     * Sets how many characters each string literal has.
+     *
+     * @param stringLength the literal length
+     */
+    public void setStringLength(int stringLength) {
+        this.stringLength = requireAtLeast("string length", stringLength, 0);
+    }
+
+    /**
+     * Generates the program.
+     *
+     * @return the file names mapped to their lines, with Main.jack first and then the classes in order
+     */
+    public Map<String, List<String>> generate() {
+        List<List<Subroutine>> plan = plan();
+        Map<String, List<String>> program = new LinkedHashMap<>();
+        program.put("Main.jack", mainLines(plan));
+        for (int i = 0; i < files; i++) {
+            program.put(className(i) + ".jack", new ClassWriter(plan, i).write());
+        }
+        return program;
+    }
+
+    /**
+     * Generates the program and writes it to a directory, which is created if needed.
+     *
+     * @param outputDir the directory to write the .jack files to
+     * @return how many files were written
+     * @throws IOException if a file can't be written
+     */
+    public int write(Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        Map<String, List<String>> program = generate();
+        for (Map.Entry<String, List<String>> file : program.entrySet()) {
+            Files.write(outputDir.resolve(file.getKey()), file.getValue(), StandardCharsets.UTF_8);
+        }
+        return program.size();
+    }
+
+    /**
+     * Writes a generated program to the directory given on the command line.
+     *
+     * @param args the settings and output directory, see the usage message
+     * @throws IOException if a file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        List<String[]> settings = new ArrayList<>();
+        String outputDir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = parseSeed(args[++i]);
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                settings.add(new String[] {args[i], args[++i]});
+            } else if (!args[i].startsWith("-") && outputDir == null) {
+                outputDir = args[i];
+            } else {
+                exitWithUsage("Can't understand " + args[i]);
+            }
+        }
+        if (outputDir == null) {
+            exitWithUsage("No output directory given");
+        }
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        try {
+            for (String[] setting : settings) {
+                generator.apply(setting[0], setting[1]);
+            }
+        } catch (IllegalArgumentException e) {
+            exitWithUsage(e.getMessage());
+        }
+        long start = System.nanoTime();
+        int written = generator.write(Paths.get(outputDir));
+        System.out.println("Wrote " + written + " file(s) to " + outputDir + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /*
+        sets one command line setting, throwing for bad ones
+     */
+    private void apply(String name, String value) {
+        try {
+            switch (name) {
+                case "--files":
+                    setFiles(Integer.parseInt(value));
+                    break;
+                case "--subroutines":
+                    setSubroutines(Integer.parseInt(value));
+                    break;
+                case "--statements":
+                    setStatements(Integer.parseInt(value));
+                    break;
+                case "--locals":
+                    setLocals(Integer.parseInt(value));
+                    break;
+                case "--statement-depth":
+                    setStatementDepth(Integer.parseInt(value));
+                    break;
+                case "--expression-depth":
+                    setExpressionDepth(Integer.parseInt(value));
+                    break;
+                case "--identifier-density":
+                    setIdentifierDensity(Double.parseDouble(value));
+                    break;
+                case "--string-length":
+                    setStringLength(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: " + value);
+        }
+    }
+
+    private static long parseSeed(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            exitWithUsage("--seed must be a number: " + value);
+        }
+        // can't actually hit this but needed to compile
+        return 1;
+    }
+
+    private static void exitWithUsage(String message) {
+        System.out.println(message);
+        System.out.println(USAGE);
+        System.exit(1);
+    }
+
+    private static int requireAtLeast(String name, int value, int min) {
+        if (value < min) {
+            throw new IllegalArgumentException("The " + name + " can't be less than " + min + ": " + value);
+        }
+        return value;
+    }
+
+    /*
+        works out every class's subroutines up front, so calls can be made to classes that aren't written yet
+     */
+    private List<List<Subroutine>> plan() {
+        Random random = new Random(seed);
+        List<List<Subroutine>> plan = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            List<Subroutine> classSubroutines = new ArrayList<>(subroutines);
+            for (int j = 0; j < subroutines; j++) {
+                boolean method = random.nextBoolean();
+                classSubroutines.add(new Subroutine((method ? "method" : "function") + j, method,
+                        random.nextInt(MAX_ARGS + 1)));
+            }
+            plan.add(classSubroutines);
+        }
+        return plan;
+    }
+
+    private List<String> mainLines(List<List<Subroutine>> plan) {
+        List<String> lines = new ArrayList<>();
+        lines.add("/** Generated by CorpusGenerator with seed " + seed + ". */");
+        lines.add("class Main {");
+        lines.add("    function void main() {");
+        for (int i = 0; i < plan.size(); i++) {
+            lines.add("        do " + className(i) + ".run();");
+        }
+        lines.add("        return;");
+        lines.add("    }");
+        lines.add("}");
+        return lines;
+    }
+
+    private String className(int index) {
+        String number = Integer.toString(index);
+        StringBuilder name = new StringBuilder("Generated");
+        for (int i = number.length(); i < Integer.toString(files - 1).length(); i++) {
+            name.append('0');
+        }
+        return name.append(number).toString();
+    }
+
+    /*
+        the signature of a generated subroutine, everything else about it is only known while it's written
+     */
+    private static class Subroutine {
+        private final String name;
+        private final boolean method;
+        private final int argCount;
+
+        private Subroutine(String name, boolean method, int argCount) {
+            this.name = name;
+            this.method = method;
+            this.argCount = argCount;
+        }
+    }
+
+    /*
+        writes out one class, keeping track of what the subroutine being written can use
+     */
+    private class ClassWriter {
+        private final List<List<Subroutine>> plan;
+        private final int classIndex;
+        private final String className;
+        private final Random random;
+        private final List<String> lines = new ArrayList<>();
+        private final List<String> readable = new ArrayList<>();
+        private final List<String> writable = new ArrayList<>();
+        private int subroutineIndex;
+        private boolean inMethod;
+        private int statementsLeft;
+
+        private ClassWriter(List<List<Subroutine>> plan, int classIndex) {
+            this.plan = plan;
+            this.classIndex = classIndex;
+            this.className = className(classIndex);
+            this.random = new Random(seed * 1_000_003L + classIndex);
+        }
+
+        private List<String> write() {
+            lines.add("/** Generated by CorpusGenerator with seed " + seed + ". */");
+            lines.add("class " + className + " {");
+            lines.add("    field int " + names("field", FIELDS) + ";");
+            lines.add("    static int " + names("static", STATICS) + ";");
+            writeConstructor();
+            List<Subroutine> classSubroutines = plan.get(classIndex);
+            for (subroutineIndex = 0; subroutineIndex < classSubroutines.size(); subroutineIndex++) {
+                writeSubroutine(classSubroutines.get(subroutineIndex));
+            }
+            writeRun(classSubroutines);
+            lines.add("}");
+            return lines;
+        }
+
+        private void writeConstructor() {
+            lines.add("");
+            lines.add("    constructor " + className + " new() {");
+            for (int i = 0; i < FIELDS; i++) {
+                lines.add("        let field" + i + " = " + random.nextInt(100) + ";");
+            }
+            lines.add("        return this;");
+            lines.add("    }");
+        }
+
+        private void writeSubroutine(Subroutine subroutine) {
+            inMethod = subroutine.method;
+            readable.clear();
+            writable.clear();
+            lines.add("");
+            lines.add("    " + (subroutine.method ? "method" : "function") + " int " + subroutine.name + "("
+                    + parameters(subroutine.argCount) + ") {");
+            for (int start = 0; start < locals; start += 10) {
+                lines.add("        var int " + names("local", start, Math.min(locals, start + 10)) + ";");
+            }
+            if (statementDepth > 0) {
+                lines.add("        var int " + names("loop", statementDepth) + ";");
+            }
+            lines.add("        var Array values;");
+            for (int i = 0; i < subroutine.argCount; i++) {
+                readable.add("arg" + i);
+            }
+            for (int i = 0; i < locals; i++) {
+                readable.add("local" + i);
+                writable.add("local" + i);
+            }
+            for (int i = 0; i < STATICS; i++) {
+                readable.add("static" + i);
+                writable.add("static" + i);
+            }
+            if (inMethod) {
+                for (int i = 0; i < FIELDS; i++) {
+                    readable.add("field" + i);
+                    writable.add("field" + i);
+                }
+            }
+            lines.add("        let values = Array.new(" + ARRAY_SIZE + ");");
+            statementsLeft = statements;
+            while (statementsLeft > 0) {
+                writeStatement(0, "        ");
+            }
+            lines.add("        do values.dispose();");
+            lines.add("        return " + expression(0) + ";");
+            lines.add("    }");
+        }
+
+        /*
+            the run function makes an instance and calls every subroutine once, so all of them are reachable from Main
+         */
+        private void writeRun(List<Subroutine> classSubroutines) {
+            lines.add("");
+            lines.add("    function void run() {");
+            lines.add("        var " + className + " instance;");
+            lines.add("        let instance = " + className + ".new();");
+            for (Subroutine subroutine : classSubroutines) {
+                List<String> args = new ArrayList<>();
+                for (int i = 0; i < subroutine.argCount; i++) {
+                    args.add(Integer.toString(random.nextInt(100)));
+                }
+                lines.add("        do " + (subroutine.method ? "instance." : className + ".") + subroutine.name + "("
+                        + String.join(", ", args) + ");");
+            }
+            lines.add("        return;");
+            lines.add("    }");
+        }
+
+        private void writeStatement(int depth, String indent) {
+            statementsLeft--;
+            double choice = random.nextDouble();
+            if (depth < statementDepth && choice < 0.15) {
+                lines.add(indent + "if (" + expression(0) + ") {");
+                writeBlock(depth + 1, indent + "    ");
+                if (random.nextBoolean()) {
+                    lines.add(indent + "} else {");
+                    writeBlock(depth + 1, indent + "    ");
+                }
+                lines.add(indent + "}");
+            } else if (depth < statementDepth && choice < 0.25) {
+                // each level of nesting has its own counter, so inner loops can't upset outer ones
+                String counter = "loop" + depth;
+                lines.add(indent + "let " + counter + " = 0;");
+                lines.add(indent + "while (" + counter + " < " + (1 + random.nextInt(MAX_LOOP)) + ") {");
+                writeBlock(depth + 1, indent + "    ");
+                lines.add(indent + "    let " + counter + " = " + counter + " + 1;");
+                lines.add(indent + "}");
+            } else if (choice < 0.4) {
+                String call = call(true);
+                lines.add(indent + "do " + (call != null ? call : "Output.printInt(" + expression(0) + ")") + ";");
+            } else if (choice < 0.45) {
+                lines.add(indent + "do Output.printString(" + string() + ");");
+            } else if (choice < 0.55) {
+                lines.add(indent + "let values[" + random.nextInt(ARRAY_SIZE) + "] = " + expression(0) + ";");
+            } else {
+                lines.add(indent + "let " + pick(writable) + " = " + expression(0) + ";");
+            }
+        }
+
+        private void writeBlock(int depth, String indent) {
+            int count = 1 + random.nextInt(3);
+            for (int i = 0; i < count && statementsLeft > 0; i++) {
+                writeStatement(depth, indent);
+            }
+        }
+
+        /*
+            an expression with at most one of its terms nested further, so its size grows with the depth rather than
+            exponentially
+         */
+        private String expression(int depth) {
+            int terms = 1 + random.nextInt(3);
+            int nested = depth < expressionDepth ? random.nextInt(terms) : -1;
+            StringBuilder expression = new StringBuilder();
+            for (int i = 0; i < terms; i++) {
+                if (i > 0) {
+                    if (random.nextInt(10) == 0) {
+                        expression.append(" / ").append(1 + random.nextInt(100));
+                        continue;
+                    }
+                    expression.append(' ').append(OPS.charAt(random.nextInt(OPS.length()))).append(' ');
+                }
+                expression.append(i == nested ? nestedTerm(depth) : term());
+            }
+            return expression.toString();
+        }
+
+        private String nestedTerm(int depth) {
+            int choice = random.nextInt(4);
+            String inner = "(" + expression(depth + 1) + ")";
+            return choice == 0 ? "-" + inner : choice == 1 ? "~" + inner : inner;
+        }
+
+        private String term() {
+            if (random.nextDouble() < identifierDensity) {
+                return random.nextInt(8) == 0 ? "values[" + random.nextInt(ARRAY_SIZE) + "]" : pick(readable);
+            }
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                String call = call(false);
+                if (call != null) {
+                    return call;
+                }
+            } else if (choice == 1) {
+                return random.nextBoolean() ? "true" : "false";
+            } else if (choice == 2) {
+                return "null";
+            }
+            return Integer.toString(random.nextInt(10) == 0 ? random.nextInt(32768) : random.nextInt(100));
+        }
+
+        /*
+            a call to a subroutine declared earlier, or null if there's none to call. Methods can only be called on this,
+            from methods of the same class, and only by do statements since an unqualified call in an expression is
+            compiled as a function call. Methods don't call functions of their own class either, since inside a method
+            the class name is taken for the receiver
+         */
+        private String call(boolean allowMethods) {
+            int targetClass = random.nextInt(classIndex + 1);
+            List<Subroutine> candidates = new ArrayList<>();
+            List<Subroutine> targetSubroutines = plan.get(targetClass);
+            int end = targetClass == classIndex ? subroutineIndex : targetSubroutines.size();
+            for (int i = 0; i < end; i++) {
+                Subroutine subroutine = targetSubroutines.get(i);
+                boolean sameClass = targetClass == classIndex;
+                if (subroutine.method ? allowMethods && inMethod && sameClass : !(inMethod && sameClass)) {
+                    candidates.add(subroutine);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            Subroutine callee = pick(candidates);
+            List<String> args = new ArrayList<>();
+            for (int i = 0; i < callee.argCount; i++) {
+                // arguments don't nest any further, or a deep expression could hold a call in every term
+                args.add(expression(expressionDepth));
+            }
+            String receiver = callee.method ? "" : className(targetClass) + ".";
+            return receiver + callee.name + "(" + String.join(", ", args) + ")";
+        }
+
+        private String string() {
+            StringBuilder string = new StringBuilder("\"");
+            for (int i = 0; i < stringLength; i++) {
+                string.append(STRING_CHARS.charAt(random.nextInt(STRING_CHARS.length())));
+            }
+            return string.append('"').toString();
+        }
+
+        private String parameters(int argCount) {
+            List<String> parameters = new ArrayList<>();
+            for (int i = 0; i < argCount; i++) {
+                parameters.add("int arg" + i);
+            }
+            return String.join(", ", parameters);
+        }
+
+        private <T> T pick(List<T> choices) {
+            return choices.get(random.nextInt(choices.size()));
+        }
+    }
+
+    private static String names(String prefix, int count) {
+        return names(prefix, 0, count);
+    }
+
+    private static String names(String prefix, int from, int to) {
+        List<String> names = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            names.add(prefix + i);
+        }
+        return String.join(", ", names);
+    }
+}
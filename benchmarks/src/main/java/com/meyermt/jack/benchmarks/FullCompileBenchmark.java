@@ -0,0 +1,59 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.JackFileReader;
+import com.meyermt.jack.JackVMWriter;
+import com.meyermt.jack.ParallelCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling a whole directory of classes the way JackCompiler does, from reading the files to writing the
+ * .vm files, on one thread and on several. The classes are made by the corpus generator, always from the same seed.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FullCompileBenchmark {
+
+    private static final long SEED = 1;
+
+    @Param({"8", "64"})
+    public int files;
+
+    @Param({"20"})
+    public int subroutinesPerFile;
+
+    @Param({"1", "4"})
+    public int jobs;
+
+    private Path inputDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        inputDir = Files.createTempDirectory("jack-bench");
+        CorpusGenerator generator = new CorpusGenerator(SEED);
+        generator.setFiles(files);
+        generator.setSubroutines(subroutinesPerFile);
+        generator.write(inputDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteTree(inputDir);
+    }
+
+    @Benchmark
+    public void compileDirectory() {
+        JackFileReader reader = new JackFileReader(inputDir.toString());
+        JackVMWriter writer = new JackVMWriter(reader.getInputPath());
+        new ParallelCompiler(jobs).compileAll(reader.sourceIterator(), writer::writeVMOut);
+    }
+}
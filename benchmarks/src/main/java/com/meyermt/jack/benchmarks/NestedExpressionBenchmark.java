@@ -0,0 +1,51 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.CompilationEngine;
+import com.meyermt.jack.JackTokenizer;
+import com.meyermt.jack.TokenStream;
+import com.meyermt.jack.VMCode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling a class of deeply nested expressions, with and without building the parse tree. At the deepest
+ * setting this also checks expressions are compiled without recursion, since a recursive compiler runs out of stack
+ * on the default thread stack size long before 20000 levels.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedExpressionBenchmark {
+
+    @Param({"100", "1000", "20000"})
+    public int depth;
+
+    private Map.Entry<String, TokenStream> fileToTokens;
+
+    @Setup
+    public void setUp() {
+        Map.Entry<String, List<String>> fileToLines =
+                new AbstractMap.SimpleEntry<>("Nested.jack", BenchmarkSources.nestedClassLines("Nested", depth));
+        fileToTokens = new JackTokenizer().tokenizeToStream(fileToLines);
+    }
+
+    @Benchmark
+    public Map.Entry<String, VMCode> compileStream() {
+        fileToTokens.getValue().rewind();
+        return new CompilationEngine(false).compileStream(fileToTokens);
+    }
+
+    @Benchmark
+    public Map.Entry<String, VMCode> compileStreamWithParseTree() {
+        fileToTokens.getValue().rewind();
+        return new CompilationEngine(true).compileStream(fileToTokens);
+    }
+}
@@ -0,0 +1,64 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.SymbolTable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up every variable of a subroutine and its class, the way the compilation engine does for each
+ * identifier, and filling the tables in the first place.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark {
+
+    @Param({"8", "64", "512"})
+    public int variables;
+
+    private String[] names;
+    private SymbolTable subTable;
+
+    @Setup
+    public void setUp() {
+        names = new String[variables * 2];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "variable" + i;
+        }
+        subTable = fill();
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(subTable.lookup(name));
+        }
+    }
+
+    @Benchmark
+    public SymbolTable build() {
+        return fill();
+    }
+
+    /*
+        class variables go in the class table and the rest in a subroutine table nested in it
+     */
+    private SymbolTable fill() {
+        SymbolTable classTable = new SymbolTable();
+        SymbolTable table = new SymbolTable(classTable);
+        for (int i = 0; i < names.length; i++) {
+            if (i < variables) {
+                classTable.add(names[i], "int", i % 2 == 0 ? SymbolTable.Kind.FIELD : SymbolTable.Kind.STATIC);
+            } else {
+                table.add(names[i], "int", i % 2 == 0 ? SymbolTable.Kind.LOCAL : SymbolTable.Kind.ARGUMENT);
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,54 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.JackLexer;
+import com.meyermt.jack.JackTokenizer;
+import com.meyermt.jack.TokenStream;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import java.nio.CharBuffer;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tokenizing one class, both into the XML token document and into a token stream.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int subroutines;
+
+    private Map.Entry<String, List<String>> fileToLines;
+    private String source;
+
+    @Setup
+    public void setUp() {
+        List<String> lines = BenchmarkSources.classLines("Bench", subroutines);
+        fileToLines = new AbstractMap.SimpleEntry<>("Bench.jack", lines);
+        source = BenchmarkSources.classSource("Bench", subroutines);
+    }
+
+    @Benchmark
+    public Map.Entry<String, Document> tokenize() {
+        return new JackTokenizer().tokenize(fileToLines);
+    }
+
+    @Benchmark
+    public Map.Entry<String, TokenStream> tokenizeToStream() {
+        return new JackTokenizer().tokenizeToStream(fileToLines);
+    }
+
+    @Benchmark
+    public TokenStream lex() {
+        return new JackLexer("Bench.jack").lex(CharBuffer.wrap(source));
+    }
+}
@@ -0,0 +1,51 @@
+package com.meyermt.jack.benchmarks;
+
+import com.meyermt.jack.JackVMWriter;
+import com.meyermt.jack.ParallelCompiler;
+import com.meyermt.jack.VMCode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a compiled class out to its .vm file.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMWriterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int subroutines;
+
+    private Path outputDir;
+    private JackVMWriter writer;
+    private Map.Entry<String, VMCode> classToVMCode;
+
+    @Setup
+    public void setUp() throws IOException {
+        outputDir = Files.createTempDirectory("jack-bench");
+        writer = new JackVMWriter(outputDir);
+        classToVMCode = ParallelCompiler.compileFile(
+                new AbstractMap.SimpleEntry<>("Bench.jack", BenchmarkSources.classLines("Bench", subroutines)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteTree(outputDir);
+    }
+
+    @Benchmark
+    public void writeVMOut() {
+        writer.writeVMOut(classToVMCode);
+    }
+}
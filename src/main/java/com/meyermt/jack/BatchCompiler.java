@@ -0,0 +1,173 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds many separate projects one after another in the same run, so the JVM only starts and warms up once. Each
+ * project is a .jack file, a directory or a zip or jar archive, as given on the command line, or listed in a batch
+ * file with one project per line. A line can name a directory or archive to write the project's vm files to after a
+ * tab, otherwise they go next to the sources. A project that fails to build is recorded and the next one built anyway,
+ * and a summary of every project is printed at the end.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class BatchCompiler {
+
+    private static final String JACK_EXT = ".jack";
+
+    /**
+     * Builds one project.
+     */
+    public interface ProjectBuild {
+        /**
+         * Builds a project, throwing if it can't be built.
+         *
+         * @param project the project to build
+         * @return how many classes were written
+         */
+        int build(Project project);
+    }
+
+    /**
+     * A project to build and where its output goes.
+     */
+    public static class Project {
+        private final Path input;
+        private final Path output;
+
+        /**
+         * Instantiates a new project.
+         *
+         * @param input the .jack file, directory or archive
+         * @param output the directory or archive to write to, or null to write next to the sources
+         */
+        public Project(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Gets the .jack file, directory or archive to build.
+         *
+         * @return the input path
+         */
+        public Path getInput() {
+            return input;
+        }
+
+        /**
+         * Gets the directory or archive to write the vm files to.
+         *
+         * @return the output directory or archive, or null to write next to the sources
+         */
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    private final List<String> summary = new ArrayList<>();
+    private int failed = 0;
+
+    /**
+     * Instantiates a new batch compiler.
+     */
+    public BatchCompiler() {
+    }
+
+    /**
+     * Works out the projects to build from the command line. A .jack file, a directory or an archive is a project, and
+     * any other file is a batch file listing projects, whose relative paths are taken from the batch file's directory.
+     *
+     * @param paths the paths given on the command line
+     * @return the projects, in the order given
+     * @throws UncheckedIOException if a batch file can't be read
+     * @throws IllegalArgumentException if a path doesn't exist, or a project's output is the archive it's read from
+     */
+    public static List<Project> readProjects(List<String> paths) {
+        List<Project> projects = new ArrayList<>();
+        for (String pathName : paths) {
+            Path path = Paths.get(pathName);
+            if (Files.isDirectory(path) || pathName.endsWith(JACK_EXT) || JackArchive.isArchive(path)) {
+                projects.add(new Project(path, null));
+            } else if (Files.isRegularFile(path)) {
+                projects.addAll(readBatchFile(path));
+            } else {
+                throw new IllegalArgumentException("No project or batch file at: " + pathName);
+            }
+        }
+        return projects;
+    }
+
+    /**
+     * Builds every project in turn, carrying on past the ones that fail.
+     *
+     * @param projects the projects to build
+     * @param build builds one project
+     * @return true if every project built
+     */
+    public boolean run(List<Project> projects, ProjectBuild build) {
+        for (Project project : projects) {
+            System.out.println("Building " + project.getInput());
+            long start = System.nanoTime();
+            String failure;
+            try {
+                int classes = build.build(project);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                summary.add("  ok      " + project.getInput() + " (" + classes + " file(s), " + millis + " ms)");
+                continue;
+            } catch (UncheckedIOException e) {
+                failure = e.getMessage() + ": " + e.getCause().getMessage();
+            } catch (RuntimeException e) {
+                failure = e.getMessage() != null ? e.getMessage() : e.toString();
+            } catch (StackOverflowError e) {
+                failure = "Nested too deeply to compile";
+            }
+            failed++;
+            System.out.println("Unable to build " + project.getInput() + ": " + failure);
+            summary.add("  FAILED  " + project.getInput() + ": " + failure);
+        }
+        return failed == 0;
+    }
+
+    /**
+     * Prints whether each project built.
+     */
+    public void printSummary() {
+        System.out.println("Built " + (summary.size() - failed) + " of " + summary.size() + " project(s), "
+                + failed + " failed");
+        summary.forEach(System.out::println);
+    }
+
+    /*
+        reads the projects listed in a batch file, skipping blank lines and # comments
+     */
+    private static List<Project> readBatchFile(Path batchFile) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(batchFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read batch file from: " + batchFile, e);
+        }
+        Path base = batchFile.toAbsolutePath().getParent();
+        List<Project> projects = new ArrayList<>();
+        for (String line : lines) {
+            if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            Path output = fields.length > 1 && !fields[1].trim().isEmpty() ? base.resolve(fields[1].trim()) : null;
+            if (output != null && JackArchive.isSameArchive(base.resolve(fields[0].trim()), output)) {
+                throw new IllegalArgumentException(batchFile + ": " + fields[0].trim()
+                        + " can't be written into the archive it's read from");
+            }
+            projects.add(new Project(base.resolve(fields[0].trim()), output));
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,249 @@
+package com.meyermt.jack;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps track of what was compiled last time so unchanged files can be skipped. The manifest is a text file next to
+ * the vm output that records the compiler version and, for each source, a hash of its contents plus the name and hash
+ * of the vm file it produced. A source is skipped when its hash, the compiler version and its vm file all still match.
+ * Sources in directories under the input are recorded by their path from it, along with the vm file's.
+ * Created by michaelmeyer on 3/16/17.
+ */
+public class BuildManifest {
+
+    /**
+     * The file name the manifest is saved under in the output directory.
+     */
+    public static final String MANIFEST_NAME = ".jack-build-manifest";
+
+    private static final String HEADER = "# jack compiler build manifest";
+    private static final String COMPILER_PREFIX = "compiler ";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path manifestPath;
+    private final String compilerVersion;
+    private final Map<String, Entry> previous = new HashMap<>();
+    private final Map<String, Entry> current = new TreeMap<>();
+    private final List<String> skipped = new ArrayList<>();
+    private final List<String> compiled = new ArrayList<>();
+
+    /**
+     * Instantiates a new build manifest, loading the last one saved unless a clean build is wanted.
+     *
+     * @param outputDir the directory vm files and the manifest are written to
+     * @param compilerVersion identifies the compiler and any options that change its output
+     * @param clean true to ignore the last manifest and compile everything
+     */
+    public BuildManifest(Path outputDir, String compilerVersion, boolean clean) {
+        this.manifestPath = outputDir.resolve(MANIFEST_NAME);
+        this.compilerVersion = compilerVersion;
+        if (!clean && Files.isRegularFile(manifestPath)) {
+            load();
+        }
+    }
+
+    /**
+     * Wraps an iterator of sources so that sources which don't need compiling are left out. Skipped sources are kept
+     * in the new manifest as they were.
+     *
+     * @param sources the sources to check
+     * @param outputDir the directory vm files are written to
+     * @return an iterator over the sources that need compiling
+     */
+    public Iterator<JackSource> filterUnchanged(Iterator<JackSource> sources, Path outputDir) {
+        return new Iterator<JackSource>() {
+            private JackSource next = findNext();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public JackSource next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                JackSource source = next;
+                next = findNext();
+                return source;
+            }
+
+            private JackSource findNext() {
+                while (sources.hasNext()) {
+                    JackSource source = sources.next();
+                    if (isUnchanged(source, outputDir)) {
+                        String name = source.getRelativeName();
+                        current.put(name, previous.get(name));
+                        skipped.add(name);
+                    } else {
+                        // recorded by what's compiled, which may not be what was just hashed
+                        source.setHashContents(true);
+                        return source;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Records a source that was just compiled along with the vm file it was written to. The source is recorded with
+     * the hash of the bytes it was compiled from, so if it's been saved again since, it's compiled again next time.
+     *
+     * @param source the compiled source, which came through filterUnchanged so its bytes were hashed as they were read
+     * @param vmFile the vm file written for it
+     */
+    public void recordCompiled(JackSource source, Path vmFile) {
+        String name = source.getRelativeName();
+        current.put(name, new Entry(source.getContentHash(), source.getRelativeName(vmFile.getFileName().toString()),
+                hashFile(vmFile)));
+        compiled.add(name);
+    }
+
+    /**
+     * Writes the manifest for this build, dropping any sources that weren't seen.
+     */
+    public void save() {
+        try (BufferedWriter out = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            out.write(COMPILER_PREFIX + compilerVersion);
+            out.newLine();
+            for (Map.Entry<String, Entry> source : current.entrySet()) {
+                Entry entry = source.getValue();
+                out.write(source.getKey() + "\t" + entry.sourceHash + "\t" + entry.vmFileName + "\t" + entry.vmHash);
+                out.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write build manifest: " + manifestPath, e);
+        }
+    }
+
+    /**
+     * Prints which files were compiled and which were skipped as unchanged.
+     */
+    public void printReport() {
+        System.out.println("Compiled " + compiled.size() + " file(s), skipped " + skipped.size() + " unchanged file(s)");
+        skipped.forEach(name -> System.out.println("  skipped " + name));
+    }
+
+    /**
+     * Gets the sources that were skipped as unchanged.
+     *
+     * @return the skipped source file names, in the order they were seen
+     */
+    public List<String> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * Hashes the contents of a file with SHA-256.
+     *
+     * @param file the file to hash
+     * @return the hash as lowercase hex
+     */
+    public static String hashFile(Path file) {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read file from: " + file, e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer with SHA-256, leaving the buffer's position where it was.
+     *
+     * @param bytes the bytes to hash
+     * @return the hash as lowercase hex
+     */
+    public static String hashBytes(ByteBuffer bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /*
+        a source is unchanged when it was compiled by this same compiler, hashes the same and its vm file is intact
+     */
+    private boolean isUnchanged(JackSource source, Path outputDir) {
+        Entry entry = previous.get(source.getRelativeName());
+        if (entry == null) {
+            return false;
+        }
+        Path vmFile = outputDir.resolve(entry.vmFileName);
+        return Files.isRegularFile(vmFile)
+                && entry.sourceHash.equals(hashFile(source.getPath()))
+                && entry.vmHash.equals(hashFile(vmFile));
+    }
+
+    /*
+        reads the last manifest, leaving it empty if it came from another compiler version or can't be understood
+     */
+    private void load() {
+        try {
+            List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+            if (lines.size() < 2 || !lines.get(0).equals(HEADER) || !lines.get(1).equals(COMPILER_PREFIX + compilerVersion)) {
+                return;
+            }
+            for (String line : lines.subList(2, lines.size())) {
+                String[] fields = line.split("\t");
+                if (fields.length == 4) {
+                    previous.put(fields[0], new Entry(fields[1], fields[2], fields[3]));
+                }
+            }
+        } catch (IOException e) {
+            previous.clear();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 isn't available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /*
+        what was recorded for one source
+     */
+    private static class Entry {
+        private final String sourceHash;
+        private final String vmFileName;
+        private final String vmHash;
+
+        private Entry(String sourceHash, String vmFileName, String vmHash) {
+            this.sourceHash = sourceHash;
+            this.vmFileName = vmFileName;
+            this.vmHash = vmHash;
+        }
+    }
+}
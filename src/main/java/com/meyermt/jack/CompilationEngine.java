@@ -6,27 +6,42 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.util.*;
 
 /**
- * Compiles tokenized elements into fully runnable vm code.
+ * Compiles tokenized elements into fully runnable vm code, and optionally an XML parse tree of the class.
+ * Expressions are compiled by a loop over an explicit stack of frames instead of by recursion, so machine generated
+ * code with deeply nested expressions can't run the thread out of stack. The frames are kept between expressions, so
+ * once the stack has grown to the deepest nesting seen, compiling an expression without a parse tree allocates
+ * nothing for it. Statements still nest by recursion, and a class nested too deeply for that is reported as a
+ * compile error.
  * Created by michaelmeyer on 2/24/17.
  */
 public class CompilationEngine {
 
     private DocumentBuilder docBuilder;
-    private List<String> vmCode = new ArrayList<>();
+    private VMCode vmCode;
     private Document doc;
     private Element rootElement;
-    private int itemInc = 0;
-    private int constructorFieldCount = 0;
-    private String className = "";
-    private String maybeSubName = "";
-    private int ifInc = 0;
-    private int whileInc = 0;
-    private SymbolTable classTable = new SymbolTable();
+    private TokenStream tokens;
+    private int constructorFieldCount;
+    private String className;
+    private String maybeSubName;
+    private int ifInc;
+    private int whileInc;
+    private SymbolTable classTable;
+    private boolean foldConstants = false;
+    private boolean stringPool = false;
+    private Map<String, Integer> pooledStrings;
+    private int stringInc;
+    // the explicit stack expressions are compiled with, one entry per open frame
+    private int[] frameStates = new int[INITIAL_FRAMES];
+    private int[] frameCounts = new int[INITIAL_FRAMES];
+    private int[] frameStarts = new int[INITIAL_FRAMES];
+    private String[] frameNames = new String[INITIAL_FRAMES];
+    private Element[] frameElements = new Element[INITIAL_FRAMES];
+    private int frameDepth;
 
     private static final List<String> classDecs = Arrays.asList(new String[] {"static", "field"});
     private static final List<String> subroutineDecs = Arrays.asList(new String[] {"constructor", "function", "method"});
@@ -34,19 +49,64 @@ public class CompilationEngine {
     private static final List<String> ops = Arrays.asList(new String[] {"+", "-", "*", "/", "&", "|", "<", ">", "="});
     private static final List<String> unaryOps = Arrays.asList(new String[] { "~", "-"});
 
+    private static final int INITIAL_FRAMES = 32;
+    // the Hack platform keeps statics in RAM 16 to 255
+    private static final int MAX_STATICS = 240;
+    // what each frame does next: starting an expression, term or list, or carrying on once the expression, term or
+    // list nested in it is done
+    private static final int EXPRESSION_START = 0, EXPRESSION_AFTER_TERM = 1, EXPRESSION_AFTER_RIGHT = 2,
+            TERM_START = 3, TERM_AFTER_UNARY = 4, TERM_AFTER_PARENS = 5, TERM_AFTER_INDEX = 6, TERM_AFTER_CALL = 7,
+            LIST_START = 8, LIST_AFTER_EXPRESSION = 9;
+
     /**
-     * Instantiates a new Compilation engine.
+     * Instantiates a new Compilation engine that builds an XML parse tree alongside the vm code.
      */
     public CompilationEngine() {
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            docBuilder = docFactory.newDocumentBuilder();
+        this(true);
+    }
+
+    /**
+     * Instantiates a new Compilation engine.
+     *
+     * @param buildParseTree true to also build an XML parse tree, false to only produce vm code
+     */
+    public CompilationEngine(boolean buildParseTree) {
+        if (buildParseTree) {
+            try {
+                docBuilder = DocFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                System.out.println("hit an error");
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Clears everything left from the last class compiled so the engine can be reused for another one. Code returned
+     * by earlier compiles isn't touched.
+     */
+    public void reset() {
+        vmCode = new VMCode();
+        if (docBuilder != null) {
             doc = docBuilder.newDocument();
+            // every element is new and added once, so there's nothing to check, and checking walks every ancestor on
+            // each add, which is slow once expressions nest deeply
+            doc.setStrictErrorChecking(false);
             rootElement = doc.createElement("class");
             doc.appendChild(rootElement);
-        } catch (ParserConfigurationException e) {
-            System.out.println("hit an error");
+        } else {
+            doc = null;
+            rootElement = null;
         }
+        tokens = null;
+        constructorFieldCount = 0;
+        className = "";
+        maybeSubName = "";
+        ifInc = 0;
+        whileInc = 0;
+        pooledStrings = new HashMap<>();
+        stringInc = 0;
+        classTable = new SymbolTable();
     }
 
     /**
@@ -55,489 +115,681 @@ public class CompilationEngine {
      * @param jackFileToDocument the jack filename to document mapping
      * @return a map entry of jack filename to XML Document
      */
-    public Map.Entry<String, List<String>> compile(Map.Entry<String, Document> jackFileToDocument) {
+    public Map.Entry<String, VMCode> compile(Map.Entry<String, Document> jackFileToDocument) {
         NodeList nodeList = jackFileToDocument.getValue().getElementsByTagName("*");
-        itemInc++; // increment past tokens
-        Node node = nodeList.item(itemInc);
-        if (node.getNodeName().equals("keyword") && node.getTextContent().trim().equals("class")) {
-            compileClass(nodeList);
-        } else {
-            throw new RuntimeException("Should be processing class element");
+        StringBuilder source = new StringBuilder();
+        // first element is the tokens root, so skip past it. token text is padded with a space on each side
+        for (int i = 1; i < nodeList.getLength(); i++) {
+            String text = nodeList.item(i).getTextContent();
+            source.append(text, 1, text.length() - 1);
         }
-        return new AbstractMap.SimpleEntry<>(className, vmCode);
+        char[] sourceChars = source.toString().toCharArray();
+        TokenStream stream = new TokenStream(sourceChars, sourceChars.length);
+        int offset = 0;
+        for (int i = 1; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            int length = node.getTextContent().length() - 2;
+            stream.add(TokenStream.kindOf(node.getNodeName()), offset, length);
+            offset += length;
+        }
+        return compileStream(new AbstractMap.SimpleEntry<>(jackFileToDocument.getKey(), stream));
     };
 
+    /**
+     * Compiles the code for a map entry consisting of a jack filename and its token stream
+     *
+     * @param jackFileToTokens the jack filename to token stream mapping
+     * @return a map entry of class name to vm code
+     */
+    public Map.Entry<String, VMCode> compileStream(Map.Entry<String, TokenStream> jackFileToTokens) {
+        tokens = jackFileToTokens.getValue();
+        try {
+            if (tokens.peekKind() == TokenStream.KEYWORD && tokens.peekIs("class")) {
+                compileClass();
+            } else {
+                throw new RuntimeException("Should be processing class element");
+            }
+        } catch (JackCompileException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // point at the token we got stuck on
+            throw new JackCompileException(jackFileToTokens.getKey(), tokens.lineAt(tokens.position()), e.getMessage(), e);
+        } catch (StackOverflowError e) {
+            // expressions don't recurse, but statements nested in statements still do
+            throw new JackCompileException(jackFileToTokens.getKey(), tokens.lineAt(tokens.position()),
+                    "Statements nested too deeply to compile", null);
+        }
+        return new AbstractMap.SimpleEntry<>(className, vmCode);
+    }
+
+    /**
+     * Turns constant folding on or off for the classes compiled after this. Expressions on constants are then worked
+     * out as they are compiled, along with operations that can't change their operand like x + 0 and x * 1, and
+     * multiplying by a constant is done with adds where that's cheaper than calling Math.multiply.
+     *
+     * @param foldConstants true to fold constants
+     */
+    public void setFoldConstants(boolean foldConstants) {
+        this.foldConstants = foldConstants;
+    }
+
+    /**
+     * Turns string pooling on or off for the classes compiled after this. Each distinct string literal in a class
+     * then gets a static of its own, past the ones the class declares, and is built the first time it's used. After
+     * that the same String is pushed every time, so a program that changes or disposes of a literal sees the change
+     * wherever that literal is used.
+     *
+     * @param stringPool true to pool string literals
+     */
+    public void setStringPool(boolean stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Gets the XML parse tree of the last class compiled.
+     *
+     * @return the parse tree, or null if this engine only produces vm code
+     */
+    public Document getParseTree() {
+        return doc;
+    }
+
     /*
-        helper method that will copy a node from the tokenized xml to the compiled one and increment node
-        tokenized node list
+        helper method that will copy the current token to the compiled xml, when building it, and move the cursor
+        past it
      */
-    private Element copyNodeAndInc(NodeList nodeList) {
-        Node node = nodeList.item(itemInc);
-        Element element = doc.createElement(node.getNodeName());
-        String textValue = node.getTextContent();
-        element.appendChild(doc.createTextNode(textValue));
-        itemInc++;
+    private void copyNodeAndInc(Element parent) {
+        if (parent != null) {
+            Element element = doc.createElement(TokenStream.kindName(tokens.peekKind()));
+            element.appendChild(doc.createTextNode(" " + tokens.peekValue() + " "));
+            parent.appendChild(element);
+        }
+        tokens.advance();
+    }
+
+    /*
+        helper method that adds a new element to the compiled xml. Without a parse tree there is no parent, and
+        nothing is created
+     */
+    private Element addElement(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        Element element = doc.createElement(name);
+        parent.appendChild(element);
         return element;
     }
 
-    private String getNodeTextValue(NodeList nodeList) {
-        Node node = nodeList.item(itemInc);
-        Element element = doc.createElement(node.getNodeName());
-        return node.getTextContent().substring(1, node.getTextContent().length() - 1);
+    private String getNodeTextValue() {
+        return tokens.peekValue();
     }
 
-    private String getNodeTypeValue(NodeList nodeList) {
-        Node node = nodeList.item(itemInc);
-        return node.getNodeName();
+    private byte getNodeTypeValue() {
+        return tokens.peekKind();
     }
 
     /*
         Compiles the class part of a jack class
      */
-    private void compileClass(NodeList nodeList) {
+    private void compileClass() {
         //root class element already added
-        rootElement.appendChild(copyNodeAndInc(nodeList)); // add class
-        className = getNodeTextValue(nodeList);
-        rootElement.appendChild(copyNodeAndInc(nodeList)); // add class name
-        rootElement.appendChild(copyNodeAndInc(nodeList)); // add {
-        Node node = nodeList.item(itemInc);
-        while (node.getNodeName().equals("keyword") && classDecs.contains(node.getTextContent().trim())) {
-            compileClassVarDec(nodeList);
-            node = nodeList.item(itemInc);
+        copyNodeAndInc(rootElement); // add class
+        className = getNodeTextValue();
+        copyNodeAndInc(rootElement); // add class name
+        copyNodeAndInc(rootElement); // add {
+        while (tokens.peekKind() == TokenStream.KEYWORD && classDecs.contains(tokens.peekValue())) {
+            compileClassVarDec();
         }
-        while (node.getNodeName().equals("keyword") && subroutineDecs.contains(node.getTextContent().trim())) {
-            compileSubRoutine(nodeList);
-            node = nodeList.item(itemInc);
+        while (tokens.peekKind() == TokenStream.KEYWORD && subroutineDecs.contains(tokens.peekValue())) {
+            compileSubRoutine();
         }
-        rootElement.appendChild(copyNodeAndInc(nodeList)); // add }
+        copyNodeAndInc(rootElement); // add }
     }
 
     /*
         Compiles the class variable declaration part of a jack class
      */
-    private void compileClassVarDec(NodeList nodeList) {
-        Element classVarDec = doc.createElement("classVarDec");
-        rootElement.appendChild(classVarDec);
-        String kind = getNodeTextValue(nodeList);
+    private void compileClassVarDec() {
+        Element classVarDec = addElement(rootElement, "classVarDec");
+        String kind = getNodeTextValue();
         if (kind.equals("field")) {
             constructorFieldCount++;
         }
-        classVarDec.appendChild(copyNodeAndInc(nodeList)); // add keyword
-        String type = getNodeTextValue(nodeList);
-        classVarDec.appendChild(copyNodeAndInc(nodeList)); // add type
-        String name = getNodeTextValue(nodeList);
+        copyNodeAndInc(classVarDec); // add keyword
+        String type = getNodeTextValue();
+        copyNodeAndInc(classVarDec); // add type
+        String name = getNodeTextValue();
         classTable.addNewItem(name, type, kind);
-        classVarDec.appendChild(copyNodeAndInc(nodeList)); // add first var name
-        Node node = nodeList.item(itemInc);
-        while (node.getTextContent().trim().equals(",")) {
+        copyNodeAndInc(classVarDec); // add first var name
+        while (tokens.peekIs(",")) {
             if (kind.equals("field")) {
                 constructorFieldCount++;
             }
-            classVarDec.appendChild(copyNodeAndInc(nodeList)); // add the comma symbol
-            name = getNodeTextValue(nodeList);
+            copyNodeAndInc(classVarDec); // add the comma symbol
+            name = getNodeTextValue();
             classTable.addNewItem(name, type, kind);
-            classVarDec.appendChild(copyNodeAndInc(nodeList)); // must be another term so add it
-            node = nodeList.item(itemInc); // either a comma or semi colon
+            copyNodeAndInc(classVarDec); // must be another term so add it, then either a comma or semi colon
         }
-        classVarDec.appendChild(copyNodeAndInc(nodeList)); // add the semi colon
+        copyNodeAndInc(classVarDec); // add the semi colon
     }
 
     /*
         Compiles a subroutine declaration, parameter list, and subroutine body
      */
-    private void compileSubRoutine(NodeList nodeList) {
-        SymbolTable subTable = new SymbolTable();
-        Element subroutineDec = doc.createElement("subroutineDec");
-        rootElement.appendChild(subroutineDec);
+    private void compileSubRoutine() {
+        SymbolTable subTable = new SymbolTable(classTable);
+        Element subroutineDec = addElement(rootElement, "subroutineDec");
 
-        String subType = getNodeTextValue(nodeList);
+        String subType = getNodeTextValue();
         if (subType.contains("method")) {
             subTable.addNewItem(className, "class", "argument");
         }
-        subroutineDec.appendChild(copyNodeAndInc(nodeList)); // add keyword
-        subroutineDec.appendChild(copyNodeAndInc(nodeList)); // add void or type
-        String functionName = getNodeTextValue(nodeList);
-        subroutineDec.appendChild(copyNodeAndInc(nodeList)); // add name
+        copyNodeAndInc(subroutineDec); // add keyword
+        copyNodeAndInc(subroutineDec); // add void or type
+        String functionName = getNodeTextValue();
+        copyNodeAndInc(subroutineDec); // add name
 
-        subroutineDec.appendChild(copyNodeAndInc(nodeList)); // add (
+        copyNodeAndInc(subroutineDec); // add (
 
-        Element parameterList = doc.createElement("parameterList");
-        subroutineDec.appendChild(parameterList);
+        Element parameterList = addElement(subroutineDec, "parameterList");
 
-        Node node = nodeList.item(itemInc);
-        while (!node.getTextContent().trim().equals(")")) {
-            if (node.getTextContent().trim().equals(",")) {
-                parameterList.appendChild(copyNodeAndInc(nodeList));
+        while (!tokens.peekIs(")")) {
+            if (tokens.peekIs(",")) {
+                copyNodeAndInc(parameterList);
             }
-            String type = getNodeTextValue(nodeList);
-            parameterList.appendChild(copyNodeAndInc(nodeList)); // type// add all params before )
-            String name = getNodeTextValue(nodeList);
+            String type = getNodeTextValue();
+            copyNodeAndInc(parameterList); // type// add all params before )
+            String name = getNodeTextValue();
             subTable.addNewItem(name, type, "argument");
-            parameterList.appendChild(copyNodeAndInc(nodeList)); // name
-            node = nodeList.item(itemInc);
+            copyNodeAndInc(parameterList); // name
         }
-        subroutineDec.appendChild(copyNodeAndInc(nodeList)); // add )
+        copyNodeAndInc(subroutineDec); // add )
 
-        Element subroutineBody = doc.createElement("subroutineBody");
-        subroutineDec.appendChild(subroutineBody);
-        subroutineBody.appendChild(copyNodeAndInc(nodeList)); // add {
+        Element subroutineBody = addElement(subroutineDec, "subroutineBody");
+        copyNodeAndInc(subroutineBody); // add {
 
         int varCounter = 0;
-        if (nodeList.item(itemInc).getTextContent().trim().equals("var")) {
-            varCounter = compileVarDec(subroutineBody, nodeList, subTable);
+        if (tokens.peekIs("var")) {
+            varCounter = compileVarDec(subroutineBody, subTable);
         }
-        vmCode.add(VMProducer.writeFunction(subType, functionName, className, Integer.toString(varCounter), Integer.toString(constructorFieldCount)));
+        VMProducer.writeFunction(vmCode, subType, functionName, className, varCounter, constructorFieldCount);
 
-        compileStatements(subroutineBody, nodeList, subTable);
-        subroutineBody.appendChild(copyNodeAndInc(nodeList)); // add }
+        compileStatements(subroutineBody, subTable);
+        copyNodeAndInc(subroutineBody); // add }
     }
 
     /*
         Compiles statements that are executed within a subroutine
      */
-    private void compileStatements(Element element, NodeList nodeList, SymbolTable subTable) {
-        String stateNode = nodeList.item(itemInc).getTextContent().trim();
-        Element statements = doc.createElement("statements");
-        element.appendChild(statements);
+    private void compileStatements(Element element, SymbolTable subTable) {
+        String stateNode = tokens.peekValue();
+        Element statements = addElement(element, "statements");
         while (statementsList.contains(stateNode)) {
 
             if (stateNode.equals("let")) {
-                compileLet(statements, nodeList, subTable);
+                compileLet(statements, subTable);
             } else if (stateNode.equals("if")) {
-                compileIf(statements, nodeList, subTable);
+                compileIf(statements, subTable);
             } else if (stateNode.equals("while")) {
-                compileWhile(statements, nodeList, subTable);
+                compileWhile(statements, subTable);
             } else if (stateNode.equals("do")) {
-                compileDo(statements, nodeList, subTable);
+                compileDo(statements, subTable);
             } else {
-                compileReturn(statements, nodeList, subTable);
+                compileReturn(statements, subTable);
             }
-            stateNode = nodeList.item(itemInc).getTextContent().trim();
+            stateNode = tokens.peekValue();
         }
     }
 
     /*
         Compiles return statement at end of subroutine
      */
-    private void compileReturn(Element element, NodeList nodeList, SymbolTable subTable) {
-        Element returnStatement = doc.createElement("returnStatement");
-        element.appendChild(returnStatement);
-        returnStatement.appendChild(copyNodeAndInc(nodeList)); // add return
-        if (!nodeList.item(itemInc).getTextContent().trim().equals(";")) {
-            compileExpression(returnStatement, nodeList, subTable);
+    private void compileReturn(Element element, SymbolTable subTable) {
+        Element returnStatement = addElement(element, "returnStatement");
+        copyNodeAndInc(returnStatement); // add return
+        if (!tokens.peekIs(";")) {
+            compileExpression(returnStatement, subTable);
         } else {
-            vmCode.add("push constant 0");
+            vmCode.push(VMCode.Segment.CONSTANT, 0);
         }
-        vmCode.add("return");
-        returnStatement.appendChild(copyNodeAndInc(nodeList)); // add ;
+        vmCode.returnOp();
+        copyNodeAndInc(returnStatement); // add ;
     }
 
     /*
         Compiles do statement
      */
-    private void compileDo(Element element, NodeList nodeList, SymbolTable subTable) {
-        Element doStatement = doc.createElement("doStatement");
+    private void compileDo(Element element, SymbolTable subTable) {
+        Element doStatement = addElement(element, "doStatement");
         int expListCount = 0;
-        element.appendChild(doStatement);
-        doStatement.appendChild(copyNodeAndInc(nodeList)); // add do
-        String maybeClassOrSub = getNodeTextValue(nodeList);
-        doStatement.appendChild(copyNodeAndInc(nodeList)); // add sub or class or var
-        if (nodeList.item(itemInc).getTextContent().trim().equals("(")) {
-            vmCode.add("push pointer 0");
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add (
-            expListCount = compileExpressionList(doStatement, nodeList, subTable, expListCount);
+        copyNodeAndInc(doStatement); // add do
+        String maybeClassOrSub = getNodeTextValue();
+        copyNodeAndInc(doStatement); // add sub or class or var
+        if (tokens.peekIs("(")) {
+            vmCode.push(VMCode.Segment.POINTER, 0);
+            copyNodeAndInc(doStatement); // add (
+            expListCount = compileExpressionList(doStatement, subTable, expListCount);
             expListCount++; // add 1 for the this
-            vmCode.add("call " + className + "." + maybeClassOrSub + " " + expListCount);
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add )
+            vmCode.call(className + "." + maybeClassOrSub, expListCount);
+            copyNodeAndInc(doStatement); // add )
         } else {
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add .
-            String sub = getNodeTextValue(nodeList);
-            if (subTable.hasItem(maybeClassOrSub, classTable)) {
-                vmCode.add("push " + subTable.getKind(maybeClassOrSub, classTable) + " " + subTable.getIndex(maybeClassOrSub, classTable));
+            copyNodeAndInc(doStatement); // add .
+            String sub = getNodeTextValue();
+            SymbolTable.Entry receiver = subTable.lookup(maybeClassOrSub);
+            if (receiver != null) {
+                vmCode.push(receiver.getVMSegment(), receiver.getIndex());
                 expListCount++;
             }
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add sub name
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add (
-            expListCount = compileExpressionList(doStatement, nodeList, subTable, expListCount);
-            if (subTable.hasItem(maybeClassOrSub, classTable)) {
-                vmCode.add("call " + subTable.getType(maybeClassOrSub, classTable) + "." + sub + " " + expListCount);
+            copyNodeAndInc(doStatement); // add sub name
+            copyNodeAndInc(doStatement); // add (
+            expListCount = compileExpressionList(doStatement, subTable, expListCount);
+            if (receiver != null) {
+                vmCode.call(receiver.getType() + "." + sub, expListCount);
             } else {
-                vmCode.add("call " + maybeClassOrSub + "." + sub + " " + expListCount);
+                vmCode.call(maybeClassOrSub + "." + sub, expListCount);
             }
-            doStatement.appendChild(copyNodeAndInc(nodeList)); // add )
+            copyNodeAndInc(doStatement); // add )
         }
-        vmCode.add("pop temp 0");
-        doStatement.appendChild(copyNodeAndInc(nodeList)); // add ;
+        vmCode.pop(VMCode.Segment.TEMP, 0);
+        copyNodeAndInc(doStatement); // add ;
     }
 
     /*
         Compiles a while statement
      */
-    private void compileWhile(Element element, NodeList nodeList, SymbolTable subTable) {
+    private void compileWhile(Element element, SymbolTable subTable) {
         int thisWhile = whileInc;
         whileInc++;
-        Element whileStatement = doc.createElement("whileStatement");
-        vmCode.add("label WHILE_EXP" + thisWhile);
-        element.appendChild(whileStatement);
-        whileStatement.appendChild(copyNodeAndInc(nodeList)); // add while
-        whileStatement.appendChild(copyNodeAndInc(nodeList)); // add (
-        compileExpression(whileStatement, nodeList, subTable);
-        whileStatement.appendChild(copyNodeAndInc(nodeList)); // add )
-        vmCode.add("not");
-        vmCode.add("if-goto WHILE_END" + thisWhile);
-        whileStatement.appendChild(copyNodeAndInc(nodeList)); // add {
-        compileStatements(whileStatement, nodeList, subTable);
-        whileStatement.appendChild(copyNodeAndInc(nodeList)); // add }
-        vmCode.add("goto WHILE_EXP" + thisWhile);
-        vmCode.add("label WHILE_END" + thisWhile);
+        Element whileStatement = addElement(element, "whileStatement");
+        vmCode.label("WHILE_EXP" + thisWhile);
+        copyNodeAndInc(whileStatement); // add while
+        copyNodeAndInc(whileStatement); // add (
+        compileExpression(whileStatement, subTable);
+        copyNodeAndInc(whileStatement); // add )
+        vmCode.arithmetic(VMCode.Op.NOT);
+        vmCode.ifGoto("WHILE_END" + thisWhile);
+        copyNodeAndInc(whileStatement); // add {
+        compileStatements(whileStatement, subTable);
+        copyNodeAndInc(whileStatement); // add }
+        vmCode.gotoLabel("WHILE_EXP" + thisWhile);
+        vmCode.label("WHILE_END" + thisWhile);
+    }
+
+    /*
+        Compiles an expression list, giving back the expression count added to the count passed in
+     */
+    private int compileExpressionList(Element element, SymbolTable subTable, int expListCount) {
+        return compileWithFrames(LIST_START, element, subTable, expListCount);
+    }
+
+    /*
+        Compiles an expression
+     */
+    private void compileExpression(Element statement, SymbolTable subTable) {
+        compileWithFrames(EXPRESSION_START, statement, subTable, 0);
     }
 
     /*
-        Compiles an expression list
+        Compiles an expression or expression list with a loop rather than recursion. Each expression, term and
+        expression list being compiled is a frame on an explicit stack, along with the element its parse tree goes in,
+        and a frame waiting on a nested one notes in its state where to carry on. Gives back the expression count for
+        a list
      */
-    private int compileExpressionList(Element element, NodeList nodeList, SymbolTable subTable, int expListCount) {
-        Element expList = doc.createElement("expressionList");
-        element.appendChild(expList);
-        String parenNode = nodeList.item(itemInc).getTextContent().trim();
-        while (!parenNode.equals(")")) {
-            expListCount++;
-            compileExpression(expList, nodeList, subTable);
-            String comNode = nodeList.item(itemInc).getTextContent().trim();
-            if (comNode.equals(",")) {
-                expList.appendChild(copyNodeAndInc(nodeList));
+    private int compileWithFrames(int startState, Element parent, SymbolTable subTable, int expListCount) {
+        frameDepth = 0;
+        pushFrame(startState, parent, expListCount);
+        int returned = 0;
+        while (frameDepth > 0) {
+            int top = frameDepth - 1;
+            Element element = frameElements[top];
+            switch (frameStates[top]) {
+                case EXPRESSION_START:
+                    frameCounts[top] = vmCode.size(); // where the left operand starts
+                    frameStates[top] = EXPRESSION_AFTER_TERM;
+                    pushFrame(TERM_START, element, 0);
+                    break;
+                case EXPRESSION_AFTER_RIGHT:
+                    writeOp(frameNames[top], frameCounts[top], frameStarts[top]);
+                    frameStates[top] = EXPRESSION_AFTER_TERM;
+                    break;
+                case EXPRESSION_AFTER_TERM:
+                    String op = tokens.peekValue();
+                    if (ops.contains(op)) {
+                        copyNodeAndInc(element); // add the op
+                        frameNames[top] = op;
+                        frameStarts[top] = vmCode.size(); // where the right operand starts
+                        frameStates[top] = EXPRESSION_AFTER_RIGHT;
+                        pushFrame(TERM_START, element, 0);
+                    } else {
+                        popFrame();
+                    }
+                    break;
+                case TERM_START:
+                    startTerm(top, element, subTable);
+                    break;
+                case TERM_AFTER_UNARY:
+                    if (!foldConstants || !ConstantFolder.foldUnary(vmCode, frameNames[top], frameStarts[top])) {
+                        processUnary(frameNames[top]);
+                    }
+                    popFrame();
+                    break;
+                case TERM_AFTER_PARENS:
+                    copyNodeAndInc(element); // add )
+                    popFrame();
+                    break;
+                case TERM_AFTER_INDEX:
+                    copyNodeAndInc(element); // add ]
+                    //operations for post-array. should have two terms on stack
+                    SymbolTable.Entry array = subTable.require(frameNames[top]);
+                    vmCode.push(array.getVMSegment(), array.getIndex());
+                    vmCode.arithmetic(VMCode.Op.ADD);
+                    vmCode.pop(VMCode.Segment.POINTER, 1);
+                    vmCode.push(VMCode.Segment.THAT, 0);
+                    popFrame();
+                    break;
+                case TERM_AFTER_CALL:
+                    copyNodeAndInc(element); // add )
+                    vmCode.call(frameNames[top], returned);
+                    popFrame();
+                    break;
+                case LIST_AFTER_EXPRESSION:
+                    if (tokens.peekValue().equals(",")) {
+                        copyNodeAndInc(element);
+                    }
+                    frameStates[top] = LIST_START;
+                    break;
+                case LIST_START:
+                    if (!tokens.peekValue().equals(")")) {
+                        frameCounts[top]++;
+                        frameStates[top] = LIST_AFTER_EXPRESSION;
+                        pushFrame(EXPRESSION_START, element, 0);
+                    } else {
+                        returned = frameCounts[top];
+                        popFrame();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown expression frame state: " + frameStates[top]);
             }
-            parenNode = nodeList.item(itemInc).getTextContent().trim();
         }
-        return expListCount;
+        return returned;
     }
 
     /*
-        Compiles an expression
+        Starts a term frame: writes a term with no expressions in it straight away, or pushes the frame for the
+        expression, term or list in it, noting what to do once that's compiled
      */
-    private void compileExpression(Element statement, NodeList nodeList, SymbolTable subTable) {
-        Element expression = doc.createElement("expression");
-        statement.appendChild(expression);
-        compileTerm(expression, nodeList, subTable);
-        String op = nodeList.item(itemInc).getTextContent().trim();
-        while (ops.contains(op)) {
-            expression.appendChild(copyNodeAndInc(nodeList)); // add the op
-            compileTerm(expression, nodeList, subTable);
-            if (op.equals("+")) {
-                vmCode.add("add");
-            } else if (op.equals("-")) {
-                vmCode.add("sub");
-            } else if (op.equals("*")) {
-                vmCode.add("call Math.multiply 2");
-            } else if (op.equals("/")) {
-                vmCode.add("call Math.divide 2");
-            } else if (op.equals("&")) {
-                vmCode.add("and");
-            } else if (op.equals("|")) {
-                vmCode.add("or");
-            } else if (op.equals("<")) {
-                vmCode.add("lt");
-            } else if (op.equals(">")) {
-                vmCode.add("gt");
-            } else if (op.equals("=")) {
-                vmCode.add("eq");
+    private void startTerm(int top, Element term, SymbolTable subTable) {
+        if (unaryOps.contains(tokens.peekValue())) {
+            frameNames[top] = getNodeTextValue();
+            copyNodeAndInc(term); // add unary op
+            frameStarts[top] = vmCode.size(); // where the operand starts
+            frameStates[top] = TERM_AFTER_UNARY;
+            pushFrame(TERM_START, term, 0);
+            return;
+        } else if (tokens.peekIs("(")) {
+            copyNodeAndInc(term); // add (
+            frameStates[top] = TERM_AFTER_PARENS;
+            pushFrame(EXPRESSION_START, term, 0);
+            return;
+        }
+        String strTerm = getNodeTextValue();
+        byte termType = getNodeTypeValue();
+        maybeSubName = strTerm;
+        copyNodeAndInc(term); // add first part of term
+        if (tokens.peekIs("[")) {
+            copyNodeAndInc(term); // add [
+            frameNames[top] = strTerm;
+            frameStates[top] = TERM_AFTER_INDEX;
+            pushFrame(EXPRESSION_START, term, 0);
+        } else if (tokens.peekIs(".")) {
+            copyNodeAndInc(term); // add .
+            int expListCount = 0;
+            SymbolTable.Entry receiver = subTable.lookup(strTerm);
+            if (receiver != null) {
+                expListCount++;
+                vmCode.push(receiver.getVMSegment(), receiver.getIndex());
+                frameNames[top] = receiver.getType() + "." + getNodeTextValue();
+            } else {
+                frameNames[top] = strTerm + "." + getNodeTextValue();
             }
-            op = nodeList.item(itemInc).getTextContent().trim();
+            copyNodeAndInc(term); // add sub name
+            copyNodeAndInc(term); // add (
+            frameStates[top] = TERM_AFTER_CALL;
+            pushFrame(LIST_START, term, expListCount);
+        } else if (tokens.peekIs("(")) {
+            copyNodeAndInc(term); // add sub name
+            copyNodeAndInc(term); // add (
+            frameNames[top] = strTerm;
+            frameStates[top] = TERM_AFTER_CALL;
+            pushFrame(LIST_START, term, 0);
+        } else {
+            writeSimpleTerm(strTerm, termType, subTable);
+            popFrame();
         }
     }
 
     /*
-        Compiles a term
+        adds a frame to the expression stack, growing it if it's full, along with the frame's own element in the
+        parse tree
      */
-    private void compileTerm(Element expression, NodeList nodeList, SymbolTable subTable) {
-        Element term = doc.createElement("term");
-        int expListCount = 0;
-        expression.appendChild(term);
-        //System.out.println("current node value is " + getNodeTextValue(nodeList));
-        //System.out.println("get current node type is " + getNodeTypeValue(nodeList));
-        if (unaryOps.contains(nodeList.item(itemInc).getTextContent().trim())) {
-            String unary = getNodeTextValue(nodeList);
-            term.appendChild(copyNodeAndInc(nodeList)); // add unary op
-            compileTerm(term, nodeList, subTable);
-            processUnary(unary);
-        } else if (nodeList.item(itemInc).getTextContent().trim().equals("(")) {
-            term.appendChild(copyNodeAndInc(nodeList)); // add (
-            compileExpression(term, nodeList, subTable);
-            term.appendChild(copyNodeAndInc(nodeList)); // add )
+    private void pushFrame(int state, Element parent, int count) {
+        if (frameDepth == frameStates.length) {
+            int frames = frameDepth * 2;
+            frameStates = Arrays.copyOf(frameStates, frames);
+            frameCounts = Arrays.copyOf(frameCounts, frames);
+            frameStarts = Arrays.copyOf(frameStarts, frames);
+            frameNames = Arrays.copyOf(frameNames, frames);
+            frameElements = Arrays.copyOf(frameElements, frames);
+        }
+        String elementName = state == EXPRESSION_START ? "expression" : state == TERM_START ? "term" : "expressionList";
+        frameStates[frameDepth] = state;
+        frameCounts[frameDepth] = count;
+        frameStarts[frameDepth] = 0;
+        frameNames[frameDepth] = null;
+        frameElements[frameDepth] = addElement(parent, elementName);
+        frameDepth++;
+    }
+
+    /*
+        drops the top frame, letting go of its element so the stack doesn't keep old parse trees alive
+     */
+    private void popFrame() {
+        frameDepth--;
+        frameElements[frameDepth] = null;
+    }
+
+    /*
+        writes a binary op once both operands are on the stack, or folds it into them when it can
+     */
+    private void writeOp(String op, int leftStart, int rightStart) {
+        if (foldConstants && (ConstantFolder.foldBinary(vmCode, op, leftStart, rightStart)
+                || StrengthReducer.reduce(vmCode, op, leftStart, rightStart))) {
+            // folded into the code already written
+        } else if (op.equals("+")) {
+            vmCode.arithmetic(VMCode.Op.ADD);
+        } else if (op.equals("-")) {
+            vmCode.arithmetic(VMCode.Op.SUB);
+        } else if (op.equals("*")) {
+            vmCode.call("Math.multiply", 2);
+        } else if (op.equals("/")) {
+            vmCode.call("Math.divide", 2);
+        } else if (op.equals("&")) {
+            vmCode.arithmetic(VMCode.Op.AND);
+        } else if (op.equals("|")) {
+            vmCode.arithmetic(VMCode.Op.OR);
+        } else if (op.equals("<")) {
+            vmCode.arithmetic(VMCode.Op.LT);
+        } else if (op.equals(">")) {
+            vmCode.arithmetic(VMCode.Op.GT);
+        } else if (op.equals("=")) {
+            vmCode.arithmetic(VMCode.Op.EQ);
+        }
+    }
+
+    /*
+        writes a term that's just a constant, keyword or variable
+     */
+    private void writeSimpleTerm(String strTerm, byte termType, SymbolTable subTable) {
+        // just a term or start to a subroutine call
+        if (termType == TokenStream.INT_CONST) {
+            vmCode.push(VMCode.Segment.CONSTANT, Integer.parseInt(strTerm));
+        } else if (termType == TokenStream.STRING_CONST) {
+            if (stringPool) {
+                writeVMForPooledString(strTerm);
+            } else {
+                writeVMForStringConstant(strTerm);
+            }
+        } else if (termType == TokenStream.KEYWORD) {
+            if (strTerm.equals("null") || strTerm.equals("false")) {
+                vmCode.push(VMCode.Segment.CONSTANT, 0);
+            } else if (strTerm.equals("true")) {
+                vmCode.push(VMCode.Segment.CONSTANT, 0);
+                vmCode.arithmetic(VMCode.Op.NOT);
+            } else if (strTerm.equals("this")) {
+                vmCode.push(VMCode.Segment.POINTER, 0);
+            }
         } else {
-            String strTerm = getNodeTextValue(nodeList);
-            String termType = getNodeTypeValue(nodeList);
-            maybeSubName = strTerm;
-            term.appendChild(copyNodeAndInc(nodeList)); // add first part of term
-            if (nodeList.item(itemInc).getTextContent().trim().equals("[")) {
-                String savedSubName = maybeSubName;
-                term.appendChild(copyNodeAndInc(nodeList)); // add [
-                compileExpression(term, nodeList, subTable);
-                term.appendChild(copyNodeAndInc(nodeList)); // add ]
-                //operations for post-array. should have two terms on stack
-                vmCode.add("push " + subTable.getKind(savedSubName, classTable) + " " + subTable.getIndex(savedSubName, classTable));
-                vmCode.add("add");
-                vmCode.add("pop pointer 1");
-                vmCode.add("push that 0");
-            } else if (nodeList.item(itemInc).getTextContent().trim().equals(".")) {
-                String savedSubName = maybeSubName;
-                term.appendChild(copyNodeAndInc(nodeList)); // add .
-                String subName;
-                if (subTable.hasItem(savedSubName, classTable)) {
-                    expListCount++;
-                    vmCode.add("push " + subTable.getKind(savedSubName, classTable) + " " + subTable.getIndex(savedSubName, classTable));
-                    subName = subTable.getType(savedSubName, classTable) + "." + getNodeTextValue(nodeList);
-                } else {
-                    subName = savedSubName + "." + getNodeTextValue(nodeList);
-                }
-                term.appendChild(copyNodeAndInc(nodeList)); // add sub name
-                term.appendChild(copyNodeAndInc(nodeList)); // add (
-                expListCount = compileExpressionList(term, nodeList, subTable, expListCount);
-                term.appendChild(copyNodeAndInc(nodeList)); // add )
-                vmCode.add("call " + subName + " " + expListCount);
-            } else if (nodeList.item(itemInc).getTextContent().trim().equals("(")) {
-                String savedSubName = maybeSubName;
-                term.appendChild(copyNodeAndInc(nodeList)); // add sub name
-                term.appendChild(copyNodeAndInc(nodeList)); // add (
-                expListCount = compileExpressionList(term, nodeList, subTable, expListCount);
-                term.appendChild(copyNodeAndInc(nodeList)); // add )
-                vmCode.add("call " + savedSubName + " " + expListCount);
+            SymbolTable.Entry variable = subTable.lookup(strTerm);
+            if (variable != null) {
+                vmCode.push(variable.getVMSegment(), variable.getIndex());
             } else {
-                // just a term or start to a subroutine call
-                if (termType.equals("integerConstant")) {
-                    vmCode.add("push constant " + strTerm);
-                } else if (termType.equals("stringConstant")) {
-                    writeVMForStringConstant(strTerm);
-                } else if (termType.equals("keyword")) {
-                    if (strTerm.equals("null") || strTerm.equals("false")) {
-                        vmCode.add("push constant 0");
-                    } else if (strTerm.equals("true")) {
-                        vmCode.add("push constant 0");
-                        vmCode.add("not");
-                    } else if (strTerm.equals("this")) {
-                        vmCode.add("push pointer 0");
-                    }
-                } else if (subTable.hasItem(strTerm, classTable)) {
-                    vmCode.add("push " + subTable.getKind(strTerm, classTable) + " " + subTable.getIndex(strTerm, classTable));
-                } else {
-                    //must be first term in subroutine
-                    maybeSubName = strTerm;
-                }
+                //must be first term in subroutine
+                maybeSubName = strTerm;
             }
         }
     }
 
     private void processUnary(String unary) {
         if (unary.equals("~")) {
-            vmCode.add("not");
+            vmCode.arithmetic(VMCode.Op.NOT);
         } else if (unary.equals("-")) {
-            vmCode.add("neg");
+            vmCode.arithmetic(VMCode.Op.NEG);
+        }
+    }
+
+    /*
+        pushes a pooled string literal, building it into its static the first time through
+     */
+    private void writeVMForPooledString(String stringConst) {
+        Integer slot = pooledStrings.get(stringConst);
+        if (slot == null) {
+            // statics are all declared before any subroutine, so the class's own count is known by now
+            slot = classTable.count(SymbolTable.Kind.STATIC) + pooledStrings.size();
+            if (slot >= MAX_STATICS) {
+                throw new RuntimeException("Pooling string literals needs more than the " + MAX_STATICS
+                        + " statics the Hack platform has, compile without --string-pool");
+            }
+            pooledStrings.put(stringConst, slot);
         }
+        String builtLabel = "STRING_BUILT" + stringInc;
+        stringInc++;
+        vmCode.push(VMCode.Segment.STATIC, slot);
+        vmCode.ifGoto(builtLabel);
+        writeVMForStringConstant(stringConst);
+        vmCode.pop(VMCode.Segment.STATIC, slot);
+        vmCode.label(builtLabel);
+        vmCode.push(VMCode.Segment.STATIC, slot);
     }
 
     private void writeVMForStringConstant(String stringConst) {
         int numChars = stringConst.length();
-        vmCode.add("push constant " + numChars);
-        vmCode.add("call String.new 1");
+        vmCode.push(VMCode.Segment.CONSTANT, numChars);
+        vmCode.call("String.new", 1);
         for (char s : stringConst.toCharArray()) {
             int unicode = (int) s;
-            vmCode.add("push constant " + unicode);
-            vmCode.add("call String.appendChar 2");
+            vmCode.push(VMCode.Segment.CONSTANT, unicode);
+            vmCode.call("String.appendChar", 2);
         }
     }
 
     /*
         Compiles a let statement
      */
-    private void compileLet(Element statements, NodeList nodeList, SymbolTable subTable) {
-        Element letStatement = doc.createElement("letStatement");
-        statements.appendChild(letStatement);
-        letStatement.appendChild(copyNodeAndInc(nodeList)); // add let
-        String varName = getNodeTextValue(nodeList);
-        letStatement.appendChild(copyNodeAndInc(nodeList)); // add var name
+    private void compileLet(Element statements, SymbolTable subTable) {
+        Element letStatement = addElement(statements, "letStatement");
+        copyNodeAndInc(letStatement); // add let
+        String varName = getNodeTextValue();
+        copyNodeAndInc(letStatement); // add var name
         boolean isArray = false;
-        if (nodeList.item(itemInc).getTextContent().trim().equals("[")) {
+        if (tokens.peekIs("[")) {
             isArray = true;
-            letStatement.appendChild(copyNodeAndInc(nodeList)); // add [
-            compileExpression(letStatement, nodeList, subTable);
-            letStatement.appendChild(copyNodeAndInc(nodeList)); // add ]
+            copyNodeAndInc(letStatement); // add [
+            compileExpression(letStatement, subTable);
+            copyNodeAndInc(letStatement); // add ]
         }
-        String kind = subTable.getKind(varName, classTable);
-        String index = subTable.getIndex(varName, classTable);
+        SymbolTable.Entry variable = subTable.require(varName);
+        VMCode.Segment kind = variable.getVMSegment();
+        int index = variable.getIndex();
         if (isArray) {
-            vmCode.add("push " + kind + " " + index);
-            vmCode.add("add");
+            vmCode.push(kind, index);
+            vmCode.arithmetic(VMCode.Op.ADD);
         }
-        letStatement.appendChild(copyNodeAndInc(nodeList)); // add =
-        compileExpression(letStatement, nodeList, subTable);
-        letStatement.appendChild(copyNodeAndInc(nodeList)); // add ;
+        copyNodeAndInc(letStatement); // add =
+        compileExpression(letStatement, subTable);
+        copyNodeAndInc(letStatement); // add ;
         // afterwards we pop it into whatever the var is
         if (isArray) {
-            vmCode.add("pop temp 0");
-            vmCode.add("pop pointer 1");
-            vmCode.add("push temp 0");
-            vmCode.add("pop that 0");
+            vmCode.pop(VMCode.Segment.TEMP, 0);
+            vmCode.pop(VMCode.Segment.POINTER, 1);
+            vmCode.push(VMCode.Segment.TEMP, 0);
+            vmCode.pop(VMCode.Segment.THAT, 0);
         } else {
-            vmCode.add("pop " + kind + " " + index);
+            vmCode.pop(kind, index);
         }
     }
 
     /*
         Compiles an if statement
      */
-    private void compileIf(Element subroutineBody, NodeList nodeList, SymbolTable subTable) {
+    private void compileIf(Element subroutineBody, SymbolTable subTable) {
         int thisIf = ifInc;
         ifInc++;
-        Element ifStatement = doc.createElement("ifStatement");
-        subroutineBody.appendChild(ifStatement);
-        ifStatement.appendChild(copyNodeAndInc(nodeList)); // add if
-        ifStatement.appendChild(copyNodeAndInc(nodeList)); // add (
-        compileExpression(ifStatement, nodeList, subTable);
-        vmCode.add("if-goto IF_TRUE" + thisIf);
-        vmCode.add("goto IF_FALSE" + thisIf);
-        vmCode.add("label IF_TRUE" + thisIf);
-        ifStatement.appendChild(copyNodeAndInc(nodeList)); // add )
-        ifStatement.appendChild(copyNodeAndInc(nodeList)); // add {
-        compileStatements(ifStatement, nodeList, subTable);
-        ifStatement.appendChild(copyNodeAndInc(nodeList)); // add }
-        if (nodeList.item(itemInc).getTextContent().trim().equals("else")) {
-            vmCode.add("goto IF_END" + thisIf);
-            vmCode.add("label IF_FALSE" + thisIf);
-            ifStatement.appendChild(copyNodeAndInc(nodeList)); // add if
-            ifStatement.appendChild(copyNodeAndInc(nodeList)); // add {
-            compileStatements(ifStatement, nodeList, subTable);
-            ifStatement.appendChild(copyNodeAndInc(nodeList)); // add }
-            vmCode.add("label IF_END" + thisIf);
+        Element ifStatement = addElement(subroutineBody, "ifStatement");
+        copyNodeAndInc(ifStatement); // add if
+        copyNodeAndInc(ifStatement); // add (
+        compileExpression(ifStatement, subTable);
+        vmCode.ifGoto("IF_TRUE" + thisIf);
+        vmCode.gotoLabel("IF_FALSE" + thisIf);
+        vmCode.label("IF_TRUE" + thisIf);
+        copyNodeAndInc(ifStatement); // add )
+        copyNodeAndInc(ifStatement); // add {
+        compileStatements(ifStatement, subTable);
+        copyNodeAndInc(ifStatement); // add }
+        if (tokens.peekIs("else")) {
+            vmCode.gotoLabel("IF_END" + thisIf);
+            vmCode.label("IF_FALSE" + thisIf);
+            copyNodeAndInc(ifStatement); // add if
+            copyNodeAndInc(ifStatement); // add {
+            compileStatements(ifStatement, subTable);
+            copyNodeAndInc(ifStatement); // add }
+            vmCode.label("IF_END" + thisIf);
         } else {
-            vmCode.add("label IF_FALSE" + thisIf);
+            vmCode.label("IF_FALSE" + thisIf);
         }
     }
 
     /*
         Compiles the variable declarations of a subroutine
      */
-    private int compileVarDec(Element subroutineBody, NodeList nodeList, SymbolTable subTable) {
-        Node nodeVar = nodeList.item(itemInc);
+    private int compileVarDec(Element subroutineBody, SymbolTable subTable) {
         int varCounter = 0;
-        while (nodeVar.getTextContent().trim().equals("var")) {
+        while (tokens.peekIs("var")) {
             varCounter++;
-            Element varDec = doc.createElement("varDec");
-            subroutineBody.appendChild(varDec);
-            varDec.appendChild(copyNodeAndInc(nodeList)); // add var
-            String type = getNodeTextValue(nodeList);
-            varDec.appendChild(copyNodeAndInc(nodeList)); // add type
-            String name = getNodeTextValue(nodeList);
+            Element varDec = addElement(subroutineBody, "varDec");
+            copyNodeAndInc(varDec); // add var
+            String type = getNodeTextValue();
+            copyNodeAndInc(varDec); // add type
+            String name = getNodeTextValue();
             subTable.addNewItem(name, type, "local");
-            varDec.appendChild(copyNodeAndInc(nodeList)); // add name
-            Node nodeCom = nodeList.item(itemInc);
-            while (nodeCom.getTextContent().trim().equals(",")) {
+            copyNodeAndInc(varDec); // add name
+            while (tokens.peekIs(",")) {
                 varCounter++;
-                varDec.appendChild(copyNodeAndInc(nodeList)); // add comma
-                subTable.addNewItem(getNodeTextValue(nodeList), type, "local");
-                varDec.appendChild(copyNodeAndInc(nodeList)); // add name
-                nodeCom = nodeList.item(itemInc); // either , or ;
+                copyNodeAndInc(varDec); // add comma
+                subTable.addNewItem(getNodeTextValue(), type, "local");
+                copyNodeAndInc(varDec); // add name, then either , or ;
             }
-            varDec.appendChild(copyNodeAndInc(nodeList));
-            nodeVar = nodeList.item(itemInc); // either another var or statement
+            copyNodeAndInc(varDec); // then either another var or statement
         }
         return varCounter;
     }
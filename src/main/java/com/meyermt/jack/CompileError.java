@@ -0,0 +1,57 @@
+package com.meyermt.jack;
+
+/**
+ * A problem found while compiling a source, with where it was found.
+ * Created by michaelmeyer on 3/18/17.
+ */
+public class CompileError {
+
+    private final String fileName;
+    private final int line;
+    private final String message;
+
+    /**
+     * Instantiates a new compile error.
+     *
+     * @param fileName the file being compiled
+     * @param line the line the problem was found at, starting from 1
+     * @param message what went wrong
+     */
+    public CompileError(String fileName, int line, String message) {
+        this.fileName = fileName;
+        this.line = line;
+        this.message = message;
+    }
+
+    /**
+     * Gets the file being compiled.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the line the problem was found at.
+     *
+     * @return the line, starting from 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Gets what went wrong.
+     *
+     * @return the message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return fileName + ":" + line + ": " + message;
+    }
+}
@@ -0,0 +1,46 @@
+package com.meyermt.jack;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one phase of compiling one file, so a recording shows where each file's time went next
+ * to what the JVM was doing. The counts are the file's as far as they are known when the phase ends, e.g. the vm
+ * instruction count is only there from the compile phase on. Events are only recorded while a recording that enables
+ * them is running, e.g. when started with -XX:StartFlightRecording.
+ * Created by michaelmeyer on 3/25/17.
+ */
+@Name("com.meyermt.jack.CompilePhase")
+@Label("Jack Compile Phase")
+@Category("Jack Compiler")
+@Description("One phase of compiling one .jack file")
+public class CompilePhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String file;
+
+    @Label("Source Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("VM Instructions")
+    long instructions;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the compiling thread during the phase")
+    @DataAmount
+    long allocated;
+}
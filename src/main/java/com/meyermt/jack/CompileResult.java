@@ -0,0 +1,109 @@
+package com.meyermt.jack;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of compiling one source in memory: either the class name and its vm code, or the errors that stopped it.
+ * Created by michaelmeyer on 3/18/17.
+ */
+public class CompileResult {
+
+    private final String fileName;
+    private final String className;
+    private final VMCode vmCode;
+    private final List<CompileError> errors;
+
+    private CompileResult(String fileName, String className, VMCode vmCode, List<CompileError> errors) {
+        this.fileName = fileName;
+        this.className = className;
+        this.vmCode = vmCode;
+        this.errors = errors;
+    }
+
+    /**
+     * Creates the result of a successful compile.
+     *
+     * @param fileName the name the source was given
+     * @param className the name of the compiled class
+     * @param vmCode the vm code produced
+     * @return the result
+     */
+    public static CompileResult success(String fileName, String className, VMCode vmCode) {
+        return new CompileResult(fileName, className, vmCode, Collections.emptyList());
+    }
+
+    /**
+     * Creates the result of a failed compile.
+     *
+     * @param fileName the name the source was given
+     * @param error what stopped the compile
+     * @return the result
+     */
+    public static CompileResult failure(String fileName, CompileError error) {
+        return new CompileResult(fileName, null, new VMCode(), Collections.singletonList(error));
+    }
+
+    /**
+     * Checks if the source compiled.
+     *
+     * @return true if there were no errors
+     */
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * Gets the name the source was given.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the name of the compiled class.
+     *
+     * @return the class name, or null if the compile failed
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the vm code as the compilation engine produced it.
+     *
+     * @return the vm code, empty if the compile failed
+     */
+    public VMCode getVMCode() {
+        return vmCode;
+    }
+
+    /**
+     * Gets the vm code with exactly one instruction per element.
+     *
+     * @return the vm instructions, empty if the compile failed
+     */
+    public List<String> getInstructions() {
+        return vmCode.toLines();
+    }
+
+    /**
+     * Gets the vm code as the text a .vm file would hold.
+     *
+     * @return the vm text, empty if the compile failed
+     */
+    public String getVMText() {
+        return vmCode.toText();
+    }
+
+    /**
+     * Gets the errors that stopped the compile.
+     *
+     * @return the errors, empty if the compile succeeded
+     */
+    public List<CompileError> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,221 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the stats of every file in a build, for --stats. Phase times are added up over all files, so with more
+ * than one job they can come to more than the wall time of the build. Files are added in the order they're handed
+ * back by the compiler, on the thread building the output, so only that thread needs to use this.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class CompileStats {
+
+    /**
+     * The phases a file goes through.
+     */
+    public enum Phase {
+        READ("read"), TOKENIZE("tokenize"), COMPILE("compile"), WRITE("write");
+
+        private final String text;
+
+        Phase(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Gets the phase name as it's reported.
+         *
+         * @return the phase name
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static final double MILLION = 1_000_000.0;
+
+    private final List<FileStats> files = new ArrayList<>();
+    private final Map<String, FileStats> filesByClass = new HashMap<>();
+    private final long startNanos = System.nanoTime();
+    private long endNanos = -1;
+
+    /**
+     * Instantiates new stats for a build starting now.
+     */
+    public CompileStats() {
+    }
+
+    /**
+     * Adds a file that has been compiled.
+     *
+     * @param fileStats the file's stats
+     */
+    public void add(FileStats fileStats) {
+        files.add(fileStats);
+        if (fileStats.getClassName() != null) {
+            filesByClass.put(fileStats.getClassName(), fileStats);
+        }
+    }
+
+    /**
+     * Gets the stats of the file a class was compiled from, for timing the class being written.
+     *
+     * @param className the class name
+     * @return the file's stats, or new stats named for the class if it wasn't compiled in this build
+     */
+    public FileStats forClass(String className) {
+        FileStats fileStats = filesByClass.get(className);
+        if (fileStats == null) {
+            fileStats = new FileStats(className + ".jack", true);
+            add(fileStats);
+        }
+        return fileStats;
+    }
+
+    /**
+     * Marks the build as done, which the wall time and throughput are worked out to.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Prints totals for the build, time and allocation by phase, and the slowest files.
+     *
+     * @param top how many of the slowest files to list
+     */
+    public void printReport(int top) {
+        long wallNanos = getWallNanos();
+        double seconds = Math.max(wallNanos, 1) / (MILLION * 1000);
+        System.out.println(String.format("Compiled %d file(s), %d lines, %d tokens, %.1f KB into %d vm instructions in %.1f ms",
+                files.size(), sum(FileStats::getLines), sum(FileStats::getTokens), sum(FileStats::getBytes) / 1024.0,
+                sum(FileStats::getInstructions), wallNanos / MILLION));
+        System.out.println(String.format("  %.0f lines/s, %.1f KB/s", sum(FileStats::getLines) / seconds,
+                sum(FileStats::getBytes) / 1024.0 / seconds));
+        System.out.println(String.format("  %-10s %10s %14s", "phase", "time ms", "allocated KB"));
+        for (Phase phase : Phase.values()) {
+            System.out.println(String.format("  %-10s %10.1f %14.1f", phase.getText(),
+                    sum(file -> file.getNanos(phase)) / MILLION, sum(file -> file.getAllocated(phase)) / 1024.0));
+        }
+        List<FileStats> slowest = getSlowest(top);
+        if (slowest.isEmpty()) {
+            return;
+        }
+        System.out.println("Slowest " + slowest.size() + " file(s):");
+        for (FileStats file : slowest) {
+            StringBuilder line = new StringBuilder(String.format("  %-24s %8.2f ms (", file.getFileName(),
+                    file.getTotalNanos() / MILLION));
+            for (Phase phase : Phase.values()) {
+                line.append(phase == Phase.READ ? "" : ", ").append(phase.getText())
+                        .append(String.format(" %.2f", file.getNanos(phase) / MILLION));
+            }
+            System.out.println(line.append(") ").append(file.getLines()).append(" lines"));
+        }
+    }
+
+    /**
+     * Writes the same numbers as the report to a JSON file, so builds can be compared with each other.
+     *
+     * @param path the file to write
+     * @param top how many of the slowest files to include
+     * @throws IOException if the file can't be written
+     */
+    public void writeJson(Path path, int top) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"wallMillis\": ").append(millis(getWallNanos())).append(",\n");
+        json.append("  \"files\": ").append(files.size()).append(",\n");
+        json.append("  \"bytes\": ").append(sum(FileStats::getBytes)).append(",\n");
+        json.append("  \"lines\": ").append(sum(FileStats::getLines)).append(",\n");
+        json.append("  \"tokens\": ").append(sum(FileStats::getTokens)).append(",\n");
+        json.append("  \"instructions\": ").append(sum(FileStats::getInstructions)).append(",\n");
+        json.append("  \"phases\": {");
+        for (Phase phase : Phase.values()) {
+            json.append(phase == Phase.READ ? "\n" : ",\n").append("    \"").append(phase.getText())
+                    .append("\": {\"millis\": ").append(millis(sum(file -> file.getNanos(phase))))
+                    .append(", \"allocatedBytes\": ").append(sum(file -> file.getAllocated(phase))).append("}");
+        }
+        json.append("\n  },\n");
+        json.append("  \"slowest\": [");
+        List<FileStats> slowest = getSlowest(top);
+        for (int i = 0; i < slowest.size(); i++) {
+            FileStats file = slowest.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"file\": ").append(quote(file.getFileName()))
+                    .append(", \"millis\": ").append(millis(file.getTotalNanos()))
+                    .append(", \"bytes\": ").append(file.getBytes())
+                    .append(", \"lines\": ").append(file.getLines())
+                    .append(", \"tokens\": ").append(file.getTokens())
+                    .append(", \"instructions\": ").append(file.getInstructions());
+            for (Phase phase : Phase.values()) {
+                json.append(", \"").append(phase.getText()).append("Millis\": ").append(millis(file.getNanos(phase)));
+            }
+            json.append("}");
+        }
+        json.append(slowest.isEmpty() ? "]\n" : "\n  ]\n").append("}\n");
+        Files.write(path, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the files in the order they were added.
+     *
+     * @return the stats of each file
+     */
+    public List<FileStats> getFiles() {
+        return files;
+    }
+
+    /**
+     * Gets how long the build took, up to now if it isn't finished.
+     *
+     * @return the wall time in nanoseconds
+     */
+    public long getWallNanos() {
+        return (endNanos < 0 ? System.nanoTime() : endNanos) - startNanos;
+    }
+
+    private List<FileStats> getSlowest(int top) {
+        return files.stream()
+                .sorted(Comparator.comparingLong(FileStats::getTotalNanos).reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+    }
+
+    private long sum(ToLongFunction<FileStats> count) {
+        return files.stream().mapToLong(count).sum();
+    }
+
+    /*
+        milliseconds for JSON, which always has a decimal point whatever the locale
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / MILLION);
+    }
+
+    /*
+        quotes a string for JSON. File names are the only strings written, so only quotes, backslashes and control
+        characters need escaping
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
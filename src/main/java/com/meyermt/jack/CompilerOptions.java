@@ -0,0 +1,462 @@
+package com.meyermt.jack;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the command line arguments given to the compiler into the input path and any optional flags.
+ * Created by michaelmeyer on 3/12/17.
+ */
+public class CompilerOptions {
+
+    private static final String USAGE = "Usage: JackCompiler [--jobs N] [--incremental] [--clean] [--watch] [--xml] [-O] [--string-pool] [--whole-program] [--stats] [--stats-top N] [--stats-json FILE] [--cost-report] [--cost-sort COLUMN] [--cost-csv FILE] [--cost-table FILE] [--batch] [--recursive] [--include GLOB] [--exclude GLOB] [--skip-unchanged] [--output DIR | ARCHIVE] <file.jack | directory | archive>...";
+
+    private final List<String> inputPaths = new ArrayList<>();
+    private int jobs = 1;
+    private boolean incremental = false;
+    private boolean clean = false;
+    private boolean watch = false;
+    private boolean xml = false;
+    private boolean optimize = false;
+    private boolean stringPool = false;
+    private boolean wholeProgram = false;
+    private boolean stats = false;
+    private int statsTop = 10;
+    private String statsJson;
+    private boolean costReport = false;
+    private CostReport.Column costSort = CostReport.Column.HACK;
+    private String costCsv;
+    private String costTable;
+    private boolean batch = false;
+    private boolean recursive = false;
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private boolean skipUnchanged = false;
+    private String output;
+
+    private CompilerOptions() {
+    }
+
+    /**
+     * Parses the arguments passed to the compiler. Exits with a usage message when they can't be understood.
+     *
+     * @param args the raw command line arguments
+     * @return the parsed options
+     */
+    public static CompilerOptions parse(String[] args) {
+        CompilerOptions options = new CompilerOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--jobs") || arg.equals("-j")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing thread count after " + arg);
+                }
+                options.jobs = parseJobs(args[i]);
+            } else if (arg.startsWith("--jobs=")) {
+                options.jobs = parseJobs(arg.substring("--jobs=".length()));
+            } else if (arg.equals("--incremental")) {
+                options.incremental = true;
+            } else if (arg.equals("--clean")) {
+                options.incremental = true;
+                options.clean = true;
+            } else if (arg.equals("--watch")) {
+                options.watch = true;
+            } else if (arg.equals("--xml")) {
+                options.xml = true;
+            } else if (arg.equals("-O")) {
+                options.optimize = true;
+            } else if (arg.equals("--string-pool")) {
+                options.stringPool = true;
+            } else if (arg.equals("--whole-program")) {
+                options.wholeProgram = true;
+            } else if (arg.equals("--stats")) {
+                options.stats = true;
+            } else if (arg.equals("--stats-top")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing file count after " + arg);
+                }
+                options.stats = true;
+                options.statsTop = parseStatsTop(args[i]);
+            } else if (arg.equals("--stats-json")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing file name after " + arg);
+                }
+                options.stats = true;
+                options.statsJson = args[i];
+            } else if (arg.equals("--cost-report")) {
+                options.costReport = true;
+            } else if (arg.equals("--cost-sort") || arg.equals("--cost-csv") || arg.equals("--cost-table")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing value after " + arg);
+                }
+                options.costReport = true;
+                if (arg.equals("--cost-sort")) {
+                    options.costSort = parseCostSort(args[i]);
+                } else if (arg.equals("--cost-csv")) {
+                    options.costCsv = args[i];
+                } else {
+                    options.costTable = args[i];
+                }
+            } else if (arg.equals("--batch")) {
+                options.batch = true;
+            } else if (arg.equals("--output")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing directory or archive after " + arg);
+                }
+                options.output = args[i];
+            } else if (arg.equals("--skip-unchanged")) {
+                options.skipUnchanged = true;
+            } else if (arg.equals("--recursive")) {
+                options.recursive = true;
+            } else if (arg.equals("--include") || arg.equals("--exclude")) {
+                i++;
+                if (i >= args.length) {
+                    exitWithUsage("Missing glob after " + arg);
+                }
+                if (arg.equals("--include")) {
+                    options.includes.add(parseGlob(args[i]));
+                } else {
+                    options.excludes.add(parseGlob(args[i]));
+                }
+            } else if (arg.startsWith("-") && arg.length() > 1) {
+                exitWithUsage("Unknown option: " + arg);
+            } else {
+                options.inputPaths.add(arg);
+            }
+        }
+        if (options.inputPaths.isEmpty()) {
+            exitWithUsage("No input file or directory given");
+        }
+        if (options.inputPaths.size() > 1 && !options.batch) {
+            exitWithUsage("Only one input file or directory may be given without --batch");
+        }
+        if (options.batch && (options.watch || options.statsJson != null || options.costCsv != null)) {
+            // there's nothing to watch once the batch is done, and every project would write over the same file
+            exitWithUsage("--batch can't be used with --watch, --stats-json or --cost-csv");
+        }
+        if (options.watch && (options.recursive || !options.includes.isEmpty() || !options.excludes.isEmpty())) {
+            // only the top directory is watched, and every file in it
+            exitWithUsage("--watch can't be used with --recursive, --include or --exclude");
+        }
+        if (options.batch && options.output != null) {
+            exitWithUsage("--batch can't be used with --output, give each project's output in a batch file instead");
+        }
+        if (options.output != null
+                && JackArchive.isSameArchive(Paths.get(options.inputPaths.get(0)), Paths.get(options.output))) {
+            exitWithUsage("An archive can't be written into as well as read from, give another --output");
+        }
+        if (options.watch && (isArchive(options.inputPaths.get(0)) || (options.output != null && isArchive(options.output)))) {
+            // an archive isn't a directory that can be watched, and one being written is only saved once it's closed
+            exitWithUsage("--watch can't be used with a zip or jar archive");
+        }
+        if (options.wholeProgram && (options.incremental || options.watch)) {
+            // both only see some of the classes, and removing code needs all of them
+            exitWithUsage("--whole-program can't be used with --incremental, --clean or --watch");
+        }
+        return options;
+    }
+
+    /**
+     * Gets the input file or directory.
+     *
+     * @return the input path as given on the command line, the first one for a batch
+     */
+    public String getInputPath() {
+        return inputPaths.get(0);
+    }
+
+    /**
+     * Gets every input path given, which is more than one only for a batch.
+     *
+     * @return the input paths as given on the command line
+     */
+    public List<String> getInputPaths() {
+        return inputPaths;
+    }
+
+    /**
+     * Gets the number of files that may be compiled at the same time.
+     *
+     * @return the job count, 1 meaning compile sequentially
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Checks if unchanged files should be skipped using the build manifest.
+     *
+     * @return true for an incremental build
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Checks if the build manifest should be ignored so that every file is compiled, and a fresh manifest written.
+     *
+     * @return true for a clean rebuild
+     */
+    public boolean isClean() {
+        return clean;
+    }
+
+    /**
+     * Checks if the compiler should keep running after the first build and recompile files as they change.
+     *
+     * @return true to watch for changes
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Checks if an XML parse tree should be written next to each vm file.
+     *
+     * @return true to write parse trees
+     */
+    public boolean isXml() {
+        return xml;
+    }
+
+    /**
+     * Checks if the vm code should be optimized before it's written.
+     *
+     * @return true to optimize
+     */
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    /**
+     * Checks if each string literal should be built once and reused, rather than built again every time it's used.
+     *
+     * @return true to pool string literals
+     */
+    public boolean isStringPool() {
+        return stringPool;
+    }
+
+    /**
+     * Checks if the classes should be compiled as one program, leaving out the subroutines and statics it never uses.
+     *
+     * @return true to remove unused code
+     */
+    public boolean isWholeProgram() {
+        return wholeProgram;
+    }
+
+    /**
+     * Checks if the time and allocation of each phase of each file should be measured and reported.
+     *
+     * @return true to print build stats
+     */
+    public boolean isStats() {
+        return stats;
+    }
+
+    /**
+     * Gets how many of the slowest files the stats should list.
+     *
+     * @return the file count
+     */
+    public int getStatsTop() {
+        return statsTop;
+    }
+
+    /**
+     * Gets the file the stats should also be written to as JSON.
+     *
+     * @return the file name, or null to only print them
+     */
+    public String getStatsJson() {
+        return statsJson;
+    }
+
+    /**
+     * Checks if the cost of each function written should be reported.
+     *
+     * @return true to print the cost report
+     */
+    public boolean isCostReport() {
+        return costReport;
+    }
+
+    /**
+     * Gets the column the cost report is sorted by.
+     *
+     * @return the column, largest first
+     */
+    public CostReport.Column getCostSort() {
+        return costSort;
+    }
+
+    /**
+     * Gets the file the cost report should be written to as CSV.
+     *
+     * @return the file name, or null to print it as a table
+     */
+    public String getCostCsv() {
+        return costCsv;
+    }
+
+    /**
+     * Gets the file of Hack instruction costs to estimate with.
+     *
+     * @return the file name, or null for the default costs
+     */
+    public String getCostTable() {
+        return costTable;
+    }
+
+    /**
+     * Checks if each input should be built as a separate project, carrying on past ones that fail.
+     *
+     * @return true for a batch build
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * Checks if .jack files should be looked for in every directory under the input directory, with their output
+     * written to the same directories under the output directory.
+     *
+     * @return true to look through the whole directory tree
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * Gets the globs of the .jack files to compile.
+     *
+     * @return the include globs, empty to compile every .jack file
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Gets the globs of the .jack files and directories to leave out.
+     *
+     * @return the exclude globs
+     */
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Checks if vm files that already hold the code being written should be left alone, and changed ones replaced
+     * all at once.
+     *
+     * @return true to skip writing unchanged files
+     */
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * Gets the directory or zip or jar archive to write the vm files to.
+     *
+     * @return the output path, or null to write next to the sources
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Gets a string identifying the compiler and every option that changes the vm code it produces. Output from an
+     * earlier build can only be reused when this matches.
+     *
+     * @return the build fingerprint
+     */
+    public String getBuildFingerprint() {
+        StringBuilder fingerprint = new StringBuilder("jack-compiler-" + JackCompiler.VERSION);
+        if (xml) {
+            // parse trees aren't tracked in the manifest, so turning them on has to rebuild everything
+            fingerprint.append(" xml");
+        }
+        if (optimize) {
+            fingerprint.append(" -O");
+        }
+        if (stringPool) {
+            fingerprint.append(" string-pool");
+        }
+        return fingerprint.toString();
+    }
+
+    /*
+        helper to read the job count, where 0 means one job per available processor
+     */
+    private static int parseJobs(String value) {
+        try {
+            int jobs = Integer.parseInt(value);
+            if (jobs < 0) {
+                exitWithUsage("Thread count can't be negative: " + value);
+            }
+            return jobs == 0 ? Runtime.getRuntime().availableProcessors() : jobs;
+        } catch (NumberFormatException e) {
+            exitWithUsage("Thread count must be a number: " + value);
+        }
+        // can't actually hit this but needed to compile
+        return 1;
+    }
+
+    private static int parseStatsTop(String value) {
+        try {
+            int top = Integer.parseInt(value);
+            if (top < 0) {
+                exitWithUsage("File count can't be negative: " + value);
+            }
+            return top;
+        } catch (NumberFormatException e) {
+            exitWithUsage("File count must be a number: " + value);
+        }
+        // can't actually hit this but needed to compile
+        return 0;
+    }
+
+    private static CostReport.Column parseCostSort(String value) {
+        try {
+            return CostReport.Column.fromText(value);
+        } catch (IllegalArgumentException e) {
+            StringBuilder columns = new StringBuilder();
+            for (CostReport.Column column : CostReport.Column.values()) {
+                columns.append(' ').append(column.getText());
+            }
+            exitWithUsage("Can't sort the cost report by " + value + ", the columns are:" + columns);
+        }
+        // can't actually hit this but needed to compile
+        return CostReport.Column.HACK;
+    }
+
+    /*
+        helper to check a glob can be matched with before anything is compiled
+     */
+    private static String parseGlob(String value) {
+        try {
+            FileSystems.getDefault().getPathMatcher("glob:" + value);
+        } catch (IllegalArgumentException e) {
+            exitWithUsage("Can't understand glob: " + value);
+        }
+        return value;
+    }
+
+    private static boolean isArchive(String path) {
+        return JackArchive.isArchive(Paths.get(path));
+    }
+
+    private static void exitWithUsage(String message) {
+        System.out.println(message);
+        System.out.println(USAGE);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,209 @@
+package com.meyermt.jack;
+
+/**
+ * Folds expressions on constants into a single constant as they are compiled, and drops operations that can't change
+ * their operand, like x + 0 or x * 1. Jack has no operator precedence, so an expression is always the value so far
+ * combined with the next term, and folding works on the code just written for those two: the left value starts at one
+ * index and the right term at another. Arithmetic wraps around at 16 bits exactly the way the vm and the OS Math class
+ * do. Operands that call subroutines are still evaluated even when their value isn't needed, and a division by zero
+ * is left for the program to hit at run time.
+ * Created by michaelmeyer on 3/22/17.
+ */
+public class ConstantFolder {
+
+    private static final int MAX_CONSTANT = 32767;
+
+    private ConstantFolder() {
+    }
+
+    /**
+     * Folds a binary operation whose operands have just been written, writing the result in their place.
+     *
+     * @param code the code being compiled
+     * @param op the jack operator, e.g. "+"
+     * @param leftStart the index the left operand's code starts at
+     * @param rightStart the index the right operand's code starts at, which runs to the end of the code
+     * @return true if the operation was folded, false if the caller still has to write the operator
+     */
+    public static boolean foldBinary(VMCode code, String op, int leftStart, int rightStart) {
+        Integer left = constantAt(code, leftStart, rightStart);
+        Integer right = constantAt(code, rightStart, code.size());
+        if (left != null && right != null) {
+            Integer folded = evaluate(op, left, right);
+            if (folded == null) {
+                return false;
+            }
+            code.truncate(leftStart);
+            pushConstant(code, folded);
+            return true;
+        }
+        if (right != null) {
+            if (isRightIdentity(op, right)) {
+                // x + 0, x - 0, x * 1, x / 1, x & -1, x | 0
+                code.truncate(rightStart);
+                return true;
+            } else if (isZero(op, right)) {
+                // x * 0, x & 0, x | -1
+                code.truncate(rightStart);
+                discardValue(code, leftStart);
+                pushConstant(code, right);
+                return true;
+            }
+        } else if (left != null) {
+            if (isLeftIdentity(op, left)) {
+                // 0 + x, 1 * x, -1 & x, 0 | x
+                code.remove(leftStart, rightStart);
+                return true;
+            } else if (op.equals("-") && left == 0) {
+                code.remove(leftStart, rightStart);
+                code.arithmetic(VMCode.Op.NEG);
+                return true;
+            } else if (isZero(op, left)) {
+                // 0 * x, 0 & x, -1 | x
+                code.remove(leftStart, rightStart);
+                discardValue(code, leftStart);
+                pushConstant(code, left);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds a unary operation whose operand has just been written, writing the result in its place.
+     *
+     * @param code the code being compiled
+     * @param unary the jack unary operator, "-" or "~"
+     * @param operandStart the index the operand's code starts at, which runs to the end of the code
+     * @return true if the operation was folded, false if the caller still has to write the operator
+     */
+    public static boolean foldUnary(VMCode code, String unary, int operandStart) {
+        VMCode.Op op = unary.equals("-") ? VMCode.Op.NEG : VMCode.Op.NOT;
+        Integer operand = constantAt(code, operandStart, code.size());
+        if (operand != null) {
+            code.truncate(operandStart);
+            pushConstant(code, op == VMCode.Op.NEG ? (short) -operand : (short) ~operand);
+            return true;
+        }
+        // the last instruction of an operand is always the one that makes its value, so -(-x) and ~(~x) are just x
+        int last = code.size() - 1;
+        if (last >= operandStart && code.op(last) == op) {
+            code.truncate(last);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the value of the code in a range if it is nothing but a constant, as written by pushConstant or for the
+     * keywords true, false and null.
+     *
+     * @param code the code to look at
+     * @param from the first instruction of the range
+     * @param to the instruction after the range
+     * @return the 16 bit value, or null if the range isn't a constant
+     */
+    public static Integer constantAt(VMCode code, int from, int to) {
+        if (to - from < 1 || to - from > 2 || code.op(from) != VMCode.Op.PUSH
+                || code.segment(from) != VMCode.Segment.CONSTANT || code.segmentIndex(from) > MAX_CONSTANT) {
+            return null;
+        }
+        int value = code.segmentIndex(from);
+        if (to - from == 1) {
+            return value;
+        } else if (code.op(from + 1) == VMCode.Op.NEG) {
+            return (int) (short) -value;
+        } else if (code.op(from + 1) == VMCode.Op.NOT) {
+            return (int) (short) ~value;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the shortest code for a 16 bit constant. The vm can only push 0 to 32767, so negative values are pushed
+     * and negated, -1 is written the same way as true, and -32768 is the not of 32767.
+     *
+     * @param code the code to write to
+     * @param value the value, from -32768 to 32767
+     */
+    public static void pushConstant(VMCode code, int value) {
+        if (value >= 0) {
+            code.push(VMCode.Segment.CONSTANT, value);
+        } else if (value == -1) {
+            code.push(VMCode.Segment.CONSTANT, 0);
+            code.arithmetic(VMCode.Op.NOT);
+        } else if (value == Short.MIN_VALUE) {
+            code.push(VMCode.Segment.CONSTANT, MAX_CONSTANT);
+            code.arithmetic(VMCode.Op.NOT);
+        } else {
+            code.push(VMCode.Segment.CONSTANT, -value);
+            code.arithmetic(VMCode.Op.NEG);
+        }
+    }
+
+    /*
+        works out an operator on two constants, or gives null for the ones the program has to do itself
+     */
+    private static Integer evaluate(String op, int left, int right) {
+        switch (op) {
+            case "+":
+                return (int) (short) (left + right);
+            case "-":
+                return (int) (short) (left - right);
+            case "*":
+                return (int) (short) (left * right);
+            case "/":
+                // dividing by zero is an error the program should still report. The OS can't take the absolute value
+                // of -32768, so what it gives back there is its own business
+                if (right == 0 || left == Short.MIN_VALUE || right == Short.MIN_VALUE) {
+                    return null;
+                }
+                return (int) (short) (left / right);
+            case "&":
+                return left & right;
+            case "|":
+                return left | right;
+            case "<":
+                return left < right ? -1 : 0;
+            case ">":
+                return left > right ? -1 : 0;
+            case "=":
+                return left == right ? -1 : 0;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isRightIdentity(String op, int right) {
+        return ((op.equals("+") || op.equals("-") || op.equals("|")) && right == 0)
+                || ((op.equals("*") || op.equals("/")) && right == 1)
+                || (op.equals("&") && right == -1);
+    }
+
+    private static boolean isLeftIdentity(String op, int left) {
+        return ((op.equals("+") || op.equals("|")) && left == 0)
+                || (op.equals("*") && left == 1)
+                || (op.equals("&") && left == -1);
+    }
+
+    /*
+        checks if the constant decides the result on its own, which is then the constant itself
+     */
+    private static boolean isZero(String op, int constant) {
+        return ((op.equals("*") || op.equals("&")) && constant == 0) || (op.equals("|") && constant == -1);
+    }
+
+    /*
+        gets rid of the value the code from start leaves on the stack. Code that can't do anything but make the value
+        is removed, code that calls a subroutine is kept for what the call might do
+     */
+    private static void discardValue(VMCode code, int start) {
+        for (int i = start; i < code.size(); i++) {
+            if (code.op(i) == VMCode.Op.CALL) {
+                code.pop(VMCode.Segment.TEMP, 0);
+                return;
+            }
+        }
+        code.truncate(start);
+    }
+}
@@ -0,0 +1,202 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts what each function in the vm code written does, to find the ones that are expensive without running them.
+ * For each function it counts every instruction, calls, calls to Math.multiply and Math.divide, strings built from
+ * literals, array accesses (each one sets pointer 1 to point that at the element) and branches, and estimates how many
+ * Hack instructions the function translates to with a cost table. The counts are static: an instruction in a loop is
+ * counted once.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class CostReport {
+
+    /**
+     * What is counted for each function, and the names they're sorted by.
+     */
+    public enum Column {
+        INSTRUCTIONS("instructions"), HACK("hack"), CALLS("calls"), MULTIPLY_DIVIDE("muldiv"), STRINGS("strings"),
+        ARRAYS("arrays"), BRANCHES("branches");
+
+        private final String text;
+
+        Column(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Gets the column name as it's written in the report.
+         *
+         * @return the column name
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Finds a column by the name it's written as.
+         *
+         * @param text the column name
+         * @return the column
+         * @throws IllegalArgumentException if no column has that name
+         */
+        public static Column fromText(String text) {
+            for (Column column : values()) {
+                if (column.text.equals(text)) {
+                    return column;
+                }
+            }
+            throw new IllegalArgumentException("Unknown column: " + text);
+        }
+    }
+
+    private final CostTable costTable;
+    private final List<FunctionCost> functions = new ArrayList<>();
+
+    /**
+     * Instantiates a new, empty cost report.
+     *
+     * @param costTable the costs to estimate Hack instructions with
+     */
+    public CostReport(CostTable costTable) {
+        this.costTable = costTable;
+    }
+
+    /**
+     * Counts the functions of one class.
+     *
+     * @param classToVMCode the class name to vm code mapping, as it's written
+     */
+    public void add(Map.Entry<String, VMCode> classToVMCode) {
+        VMCode code = classToVMCode.getValue();
+        FunctionCost function = null;
+        for (int i = 0; i < code.size(); i++) {
+            VMCode.Op op = code.op(i);
+            if (op == VMCode.Op.FUNCTION) {
+                function = new FunctionCost(code.name(i));
+                functions.add(function);
+            } else if (function == null) {
+                // nothing is written outside a function, but don't lose it if it ever is
+                function = new FunctionCost(classToVMCode.getKey());
+                functions.add(function);
+            }
+            function.add(Column.INSTRUCTIONS, 1);
+            function.add(Column.HACK, costTable.cost(code, i));
+            if (op == VMCode.Op.CALL) {
+                String callee = code.name(i);
+                function.add(Column.CALLS, 1);
+                if (callee.equals("Math.multiply") || callee.equals("Math.divide")) {
+                    function.add(Column.MULTIPLY_DIVIDE, 1);
+                } else if (callee.equals("String.new")) {
+                    function.add(Column.STRINGS, 1);
+                }
+            } else if (op == VMCode.Op.POP && code.segment(i) == VMCode.Segment.POINTER && code.segmentIndex(i) == 1) {
+                function.add(Column.ARRAYS, 1);
+            } else if (op == VMCode.Op.GOTO || op == VMCode.Op.IF_GOTO) {
+                function.add(Column.BRANCHES, 1);
+            }
+        }
+    }
+
+    /**
+     * Prints a table of every function counted, with the totals at the bottom.
+     *
+     * @param sortBy the column to sort by, largest first
+     */
+    public void printTable(Column sortBy) {
+        List<FunctionCost> sorted = sort(sortBy);
+        int nameWidth = "function".length();
+        for (FunctionCost function : sorted) {
+            nameWidth = Math.max(nameWidth, function.name.length());
+        }
+        StringBuilder header = new StringBuilder(pad("function", nameWidth));
+        for (Column column : Column.values()) {
+            header.append(String.format(" %12s", column.getText()));
+        }
+        System.out.println(header);
+        FunctionCost total = new FunctionCost("total");
+        for (FunctionCost function : sorted) {
+            System.out.println(row(function, nameWidth));
+            for (Column column : Column.values()) {
+                total.add(column, function.get(column));
+            }
+        }
+        System.out.println(row(total, nameWidth));
+    }
+
+    /**
+     * Writes every function counted as CSV, one row per function after a header row.
+     *
+     * @param path the file to write
+     * @param sortBy the column to sort by, largest first
+     * @throws IOException if the file can't be written
+     */
+    public void writeCsv(Path path, Column sortBy) throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder header = new StringBuilder("function");
+        for (Column column : Column.values()) {
+            header.append(',').append(column.getText());
+        }
+        lines.add(header.toString());
+        for (FunctionCost function : sort(sortBy)) {
+            // function names are jack identifiers joined by a dot, so they never need quoting
+            StringBuilder line = new StringBuilder(function.name);
+            for (Column column : Column.values()) {
+                line.append(',').append(function.get(column));
+            }
+            lines.add(line.toString());
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    private List<FunctionCost> sort(Column sortBy) {
+        List<FunctionCost> sorted = new ArrayList<>(functions);
+        sorted.sort(Comparator.comparingLong((FunctionCost function) -> function.get(sortBy)).reversed()
+                .thenComparing(function -> function.name));
+        return sorted;
+    }
+
+    private static String row(FunctionCost function, int nameWidth) {
+        StringBuilder row = new StringBuilder(pad(function.name, nameWidth));
+        for (Column column : Column.values()) {
+            row.append(String.format(" %12d", function.get(column)));
+        }
+        return row.toString();
+    }
+
+    private static String pad(String text, int width) {
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+    /*
+        the counts for one function
+     */
+    private static class FunctionCost {
+        private final String name;
+        private final long[] counts = new long[Column.values().length];
+
+        private FunctionCost(String name) {
+            this.name = name;
+        }
+
+        private void add(Column column, long count) {
+            counts[column.ordinal()] += count;
+        }
+
+        private long get(Column column) {
+            return counts[column.ordinal()];
+        }
+    }
+}
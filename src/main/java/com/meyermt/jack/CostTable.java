@@ -0,0 +1,120 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How many Hack instructions each vm command is estimated to translate to. The defaults are about what a plain vm
+ * translator writes, e.g. a push from local needs the segment base, the offset, and then the stack to be bumped, while
+ * a push of a static is a direct load. They can be changed with a text file where each line is a command, as it
+ * starts in a .vm file, followed by its cost:
+ * <pre>
+ * # comments and blank lines are skipped
+ * push local 10
+ * eq 12
+ * call 45
+ * call Math.multiply 1500
+ * function local 7
+ * </pre>
+ * A call to a named function costs what the table says for that function if it's there, or else what a call costs.
+ * A function costs "function" plus "function local" for each local it sets to zero. Commands not in the file keep
+ * their default cost.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class CostTable {
+
+    private static final String FUNCTION_LOCAL = "function local";
+
+    private final Map<String, Integer> costs = new HashMap<>();
+
+    /**
+     * Instantiates a cost table with the default costs.
+     */
+    public CostTable() {
+        for (VMCode.Segment segment : VMCode.Segment.values()) {
+            boolean direct = segment == VMCode.Segment.STATIC || segment == VMCode.Segment.TEMP
+                    || segment == VMCode.Segment.POINTER;
+            costs.put("push " + segment.getText(), segment == VMCode.Segment.CONSTANT ? 7 : direct ? 6 : 10);
+            if (segment != VMCode.Segment.CONSTANT) {
+                costs.put("pop " + segment.getText(), direct ? 5 : 12);
+            }
+        }
+        for (VMCode.Op op : VMCode.Op.values()) {
+            if (op.isArithmetic()) {
+                boolean compare = op == VMCode.Op.EQ || op == VMCode.Op.GT || op == VMCode.Op.LT;
+                boolean unary = op == VMCode.Op.NEG || op == VMCode.Op.NOT;
+                costs.put(op.getText(), compare ? 12 : unary ? 3 : 5);
+            }
+        }
+        costs.put(VMCode.Op.LABEL.getText(), 0);
+        costs.put(VMCode.Op.GOTO.getText(), 2);
+        costs.put(VMCode.Op.IF_GOTO.getText(), 4);
+        costs.put(VMCode.Op.FUNCTION.getText(), 0);
+        costs.put(FUNCTION_LOCAL, 7);
+        costs.put(VMCode.Op.CALL.getText(), 45);
+        costs.put(VMCode.Op.RETURN.getText(), 50);
+    }
+
+    /**
+     * Loads a cost table, starting from the defaults and changing the costs the file gives.
+     *
+     * @param path the cost file
+     * @return the cost table
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a line isn't a known command and a cost
+     */
+    public static CostTable load(Path path) throws IOException {
+        CostTable table = new CostTable();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.lastIndexOf(' ');
+            String command = space < 0 ? "" : line.substring(0, space).trim().replaceAll("\\s+", " ");
+            boolean named = command.startsWith(VMCode.Op.CALL.getText() + " ");
+            if (!named && !table.costs.containsKey(command)) {
+                throw new IllegalArgumentException(path + " line " + (i + 1) + ": unknown command: " + line);
+            }
+            try {
+                int cost = Integer.parseInt(line.substring(space + 1));
+                if (cost < 0) {
+                    throw new NumberFormatException();
+                }
+                table.costs.put(command, cost);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(path + " line " + (i + 1) + ": cost must be a number: " + line);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Gets the estimated cost of one instruction.
+     *
+     * @param code the code the instruction is in
+     * @param index the instruction index
+     * @return the estimated Hack instruction count
+     */
+    public int cost(VMCode code, int index) {
+        VMCode.Op op = code.op(index);
+        switch (op) {
+            case PUSH:
+            case POP:
+                return costs.get(op.getText() + " " + code.segment(index).getText());
+            case FUNCTION:
+                return costs.get(op.getText()) + costs.get(FUNCTION_LOCAL) * code.count(index);
+            case CALL:
+                Integer callCost = costs.get(op.getText() + " " + code.name(index));
+                return callCost != null ? callCost : costs.get(op.getText());
+            default:
+                return costs.get(op.getText());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.meyermt.jack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops the subroutines and statics a whole program never uses. Starting from Main.main and Sys.init, the calls in
+ * each function are followed to find every function that can run, and the rest are left out of the vm code. Classes
+ * named like the OS classes keep all their functions, since the OS the program runs on may call any of them. Statics
+ * that are written but never read by a function that can run are dropped too, with their writes just discarding the
+ * value, which frees up room in the 240 words the vm has for statics.
+ * Created by michaelmeyer on 3/23/17.
+ */
+public class DeadCodeEliminator {
+
+    private static final List<String> ROOTS = Arrays.asList("Main.main", "Sys.init");
+    private static final List<String> OS_CLASSES = Arrays.asList(
+            "Array", "Keyboard", "Math", "Memory", "Output", "Screen", "String", "Sys");
+
+    private final List<String> removedFunctions = new ArrayList<>();
+    private final List<String> removedStatics = new ArrayList<>();
+    private int functionCount = 0;
+    private boolean hasRoot = true;
+
+    /**
+     * Instantiates a new dead code eliminator.
+     */
+    public DeadCodeEliminator() {
+    }
+
+    /**
+     * Removes the unused subroutines and statics from a whole program. If the program has neither Main.main nor
+     * Sys.init there's nowhere to start from, and it's handed back as it was.
+     *
+     * @param program every class name in the program mapped to its vm code, which isn't changed
+     * @return the class names mapped to their new vm code, in the same order. A class with nothing left in it has
+     * empty code
+     */
+    public Map<String, VMCode> eliminate(Map<String, VMCode> program) {
+        Map<String, Function> functions = new LinkedHashMap<>();
+        program.forEach((className, code) -> splitFunctions(className, code, functions));
+        functionCount = functions.size();
+
+        Deque<Function> pending = new ArrayDeque<>();
+        for (Function function : functions.values()) {
+            if (ROOTS.contains(function.name) || OS_CLASSES.contains(function.className)) {
+                pending.add(function);
+            }
+        }
+        hasRoot = functions.keySet().stream().anyMatch(ROOTS::contains);
+        if (!hasRoot) {
+            return program;
+        }
+        Set<Function> reachable = new HashSet<>();
+        while (!pending.isEmpty()) {
+            Function function = pending.removeFirst();
+            if (!reachable.add(function)) {
+                continue;
+            }
+            for (int i = function.start; i < function.end; i++) {
+                if (function.code.op(i) == VMCode.Op.CALL) {
+                    Function callee = functions.get(qualify(function.className, function.code.name(i)));
+                    if (callee != null) {
+                        pending.add(callee);
+                    }
+                }
+            }
+        }
+
+        Map<String, BitSet> staticsRead = new HashMap<>();
+        for (Function function : reachable) {
+            BitSet read = staticsRead.computeIfAbsent(function.className, className -> new BitSet());
+            for (int i = function.start; i < function.end; i++) {
+                if (function.code.op(i) == VMCode.Op.PUSH && function.code.segment(i) == VMCode.Segment.STATIC) {
+                    read.set(function.code.segmentIndex(i));
+                }
+            }
+        }
+
+        Map<String, VMCode> kept = new LinkedHashMap<>();
+        program.keySet().forEach(className -> kept.put(className, new VMCode()));
+        for (Function function : functions.values()) {
+            if (!reachable.contains(function)) {
+                removedFunctions.add(function.name);
+                continue;
+            }
+            VMCode out = kept.get(function.className);
+            BitSet read = staticsRead.get(function.className);
+            for (int i = function.start; i < function.end; i++) {
+                VMCode.Op op = function.code.op(i);
+                if (op == VMCode.Op.POP && function.code.segment(i) == VMCode.Segment.STATIC
+                        && !read.get(function.code.segmentIndex(i))) {
+                    String removed = function.className + " static " + function.code.segmentIndex(i);
+                    if (!removedStatics.contains(removed)) {
+                        removedStatics.add(removed);
+                    }
+                    out.pop(VMCode.Segment.TEMP, 0);
+                } else {
+                    out.copy(function.code, i);
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Prints what was removed from the program.
+     */
+    public void printReport() {
+        if (!hasRoot) {
+            System.out.println("No Main.main or Sys.init to start from, so nothing was removed");
+            return;
+        }
+        System.out.println("Removed " + removedFunctions.size() + " of " + functionCount + " function(s) and "
+                + removedStatics.size() + " unused static(s)");
+        removedFunctions.forEach(name -> System.out.println("  removed function " + name));
+        removedStatics.forEach(name -> System.out.println("  removed " + name));
+    }
+
+    /*
+        cuts a class's code up at each function declaration
+     */
+    private static void splitFunctions(String className, VMCode code, Map<String, Function> functions) {
+        Function current = null;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.op(i) == VMCode.Op.FUNCTION) {
+                if (current != null) {
+                    current.end = i;
+                }
+                current = new Function(className, code.name(i), code, i);
+                functions.put(current.name, current);
+            }
+        }
+        if (current != null) {
+            current.end = code.size();
+        }
+    }
+
+    /*
+        a call without a class name can only be to a subroutine of the same class
+     */
+    private static String qualify(String className, String callee) {
+        return callee.indexOf('.') < 0 ? className + "." + callee : callee;
+    }
+
+    /*
+        where one function's code is
+     */
+    private static class Function {
+        private final String className;
+        private final String name;
+        private final VMCode code;
+        private final int start;
+        private int end;
+
+        private Function(String className, String name, VMCode code, int start) {
+            this.className = className;
+            this.name = name;
+            this.code = code;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.meyermt.jack;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Makes the document builders for the token and parse tree documents. Looking up the factory is slow, so it's done
+ * once, and only when this class is first used, which is when the first document is needed. Factories aren't thread
+ * safe, so builders are made from it one at a time.
+ * Created by michaelmeyer on 3/25/17.
+ */
+class DocFactory {
+
+    private static final DocumentBuilderFactory FACTORY = DocumentBuilderFactory.newInstance();
+
+    private DocFactory() {
+    }
+
+    /**
+     * Makes a new document builder, which only the calling thread should use.
+     *
+     * @return the builder
+     * @throws ParserConfigurationException if the factory can't make one
+     */
+    static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        synchronized (FACTORY) {
+            return FACTORY.newDocumentBuilder();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.meyermt.jack;
+
+import jdk.jfr.FlightRecorder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+/**
+ * Times the phases of compiling one file and counts what went through them. Each phase is timed on the thread that
+ * runs it, along with the bytes that thread allocated, and sent to Flight Recorder as a CompilePhaseEvent. A normal
+ * build, with no stats collected and no recording running, doesn't make any, see isWanted. A file's phases run one
+ * after the other, so one instance is never used by two threads at once.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class FileStats {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String fileName;
+    private final boolean collect;
+    private String className;
+    private long bytes = -1;
+    private long lines = 0;
+    private long tokens = 0;
+    private long instructions = 0;
+    private final long[] nanos = new long[CompileStats.Phase.values().length];
+    private final long[] allocated = new long[CompileStats.Phase.values().length];
+
+    private CompilePhaseEvent event;
+    private boolean measuring;
+    private long phaseStart;
+    private long phaseAllocatedStart;
+
+    /**
+     * Instantiates stats for one file.
+     *
+     * @param fileName the file name, e.g. Main.jack
+     * @param collect true if the numbers will be reported, so they have to be measured even without a recording
+     */
+    public FileStats(String fileName, boolean collect) {
+        this.fileName = fileName;
+        this.collect = collect;
+    }
+
+    /**
+     * Checks if a file's phases need measuring at all, so callers can leave out the stats and the events for each
+     * phase when nothing would use them. Flight Recorder is only initialized once a recording has been started,
+     * which may happen partway through a build, so this is asked again for each file.
+     *
+     * @param collect true if the numbers will be reported
+     * @return true if stats should be made for the file
+     */
+    public static boolean isWanted(boolean collect) {
+        return collect || FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Starts timing a phase on the current thread.
+     *
+     * @param phase the phase starting
+     */
+    public void begin(CompileStats.Phase phase) {
+        event = new CompilePhaseEvent();
+        measuring = collect || event.isEnabled();
+        if (!measuring) {
+            return;
+        }
+        event.begin();
+        phaseAllocatedStart = allocatedBytes();
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Stops timing a phase, which must have been started on the same thread, and records its event.
+     *
+     * @param phase the phase ending
+     */
+    public void end(CompileStats.Phase phase) {
+        if (!measuring) {
+            return;
+        }
+        long phaseNanos = System.nanoTime() - phaseStart;
+        long phaseAllocated = allocatedBytes() - phaseAllocatedStart;
+        nanos[phase.ordinal()] += phaseNanos;
+        allocated[phase.ordinal()] += phaseAllocated;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.getText();
+            event.file = fileName;
+            event.bytes = getBytes();
+            event.lines = lines;
+            event.tokens = tokens;
+            event.instructions = instructions;
+            event.allocated = phaseAllocated;
+            event.commit();
+        }
+        event = null;
+    }
+
+    /**
+     * Records the size of the file as read.
+     *
+     * @param bytes the size in bytes
+     */
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Records what the file was tokenized into, counting its lines as well when they're being measured.
+     *
+     * @param tokenStream the file's tokens
+     */
+    public void countTokens(TokenStream tokenStream) {
+        tokens = tokenStream.size();
+        if (bytes < 0) {
+            // files given as lines rather than read are as big as their text
+            bytes = tokenStream.getSourceLength();
+        }
+        if (!measuring) {
+            return;
+        }
+        char[] source = tokenStream.getSource();
+        int length = tokenStream.getSourceLength();
+        long count = 0;
+        for (int i = 0; i < length; i++) {
+            if (source[i] == '\n') {
+                count++;
+            }
+        }
+        // a last line without a line break still counts
+        lines = length > 0 && source[length - 1] != '\n' ? count + 1 : count;
+    }
+
+    /**
+     * Records what the file compiled to.
+     *
+     * @param classToVMCode the class name to vm code mapping, after any optimizing
+     */
+    public void countCompiled(Map.Entry<String, VMCode> classToVMCode) {
+        className = classToVMCode.getKey();
+        instructions = classToVMCode.getValue().size();
+    }
+
+    /**
+     * Gets the file name.
+     *
+     * @return the file name, e.g. Main.jack
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the name of the class compiled from the file.
+     *
+     * @return the class name, or null until the file is compiled
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the size of the file.
+     *
+     * @return the size in bytes, or 0 before it's read
+     */
+    public long getBytes() {
+        return Math.max(bytes, 0);
+    }
+
+    /**
+     * Gets how many lines the file has.
+     *
+     * @return the line count
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets how many tokens the file has.
+     *
+     * @return the token count
+     */
+    public long getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Gets how many vm instructions the file compiled to.
+     *
+     * @return the instruction count
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Gets how long a phase took for this file.
+     *
+     * @param phase the phase
+     * @return the time in nanoseconds
+     */
+    public long getNanos(CompileStats.Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Gets how long every phase took together for this file.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return total;
+    }
+
+    /**
+     * Gets how many bytes were allocated during a phase for this file.
+     *
+     * @param phase the phase
+     * @return the allocated bytes, or 0 where the JVM can't tell
+     */
+    public long getAllocated(CompileStats.Phase phase) {
+        return allocated[phase.ordinal()];
+    }
+
+    /*
+        the bytes allocated so far by the current thread, where the JVM can say
+     */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
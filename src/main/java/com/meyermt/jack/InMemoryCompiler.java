@@ -0,0 +1,76 @@
+package com.meyermt.jack;
+
+import java.nio.CharBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles Jack source held in memory, for hosting the compiler inside another program. It never reads or writes
+ * files or exits the JVM, and problems come back as errors on the result rather than being printed. An instance reuses
+ * its compilation engine from one source to the next, so it belongs to the thread that created it; use
+ * forCurrentThread() to get one per thread.
+ * Created by michaelmeyer on 3/18/17.
+ */
+public class InMemoryCompiler {
+
+    private static final ThreadLocal<InMemoryCompiler> PER_THREAD = ThreadLocal.withInitial(InMemoryCompiler::new);
+
+    private final CompilationEngine engine = new CompilationEngine(false);
+    private final Thread owner = Thread.currentThread();
+
+    /**
+     * Instantiates a new in memory compiler confined to the current thread.
+     */
+    public InMemoryCompiler() {
+    }
+
+    /**
+     * Gets the compiler belonging to the current thread, creating it the first time.
+     *
+     * @return the compiler for this thread
+     */
+    public static InMemoryCompiler forCurrentThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * Compiles one source.
+     *
+     * @param fileName the name to report the source under, e.g. Main.jack
+     * @param source the Jack source code
+     * @return the vm code or the errors found
+     * @throws IllegalStateException if called from a thread other than the one that created this compiler
+     */
+    public CompileResult compile(String fileName, CharSequence source) {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("InMemoryCompiler used from " + Thread.currentThread().getName()
+                    + " but belongs to " + owner.getName());
+        }
+        engine.reset();
+        try {
+            JackLexer lexer = new JackLexer(fileName);
+            TokenStream tokens = lexer.lex(CharBuffer.wrap(source));
+            Map.Entry<String, VMCode> classToVMCode =
+                    engine.compileStream(new AbstractMap.SimpleEntry<>(fileName, tokens));
+            return CompileResult.success(fileName, classToVMCode.getKey(), classToVMCode.getValue());
+        } catch (JackCompileException e) {
+            return CompileResult.failure(fileName, new CompileError(e.getFileName(), e.getLine(), e.getReason()));
+        } catch (RuntimeException e) {
+            return CompileResult.failure(fileName, new CompileError(fileName, 0, String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Compiles a batch of sources one after another. A source that fails doesn't stop the rest.
+     *
+     * @param sources the names to report each source under mapped to its Jack source code
+     * @return a result for each source, in the map's order
+     */
+    public List<CompileResult> compileAll(Map<String, ? extends CharSequence> sources) {
+        List<CompileResult> results = new ArrayList<>(sources.size());
+        sources.forEach((fileName, source) -> results.add(compile(fileName, source)));
+        return results;
+    }
+}
@@ -0,0 +1,161 @@
+package com.meyermt.jack;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Replaces calls to trivial subroutines anywhere in a whole program with what the subroutine does, saving the call
+ * frame. A call in the vm code already names the class it goes to, worked out from the receiver's declared type, so
+ * the subroutine called is always known. The subroutines recognized are:
+ * - getters, method int getX() { return x; }, which become pop pointer 1, push that i on the receiver
+ * - setters, method void setX(int v) { let x = v; return; }, which store through pointer 1 the same way
+ * - methods and functions that only return a constant, which become the constant
+ * - functions that only return a static of their class, for calls from that same class
+ * Receivers and arguments are still evaluated, so anything they do still happens. When the call was a do statement
+ * its unused return value isn't pushed at all.
+ * Created by michaelmeyer on 3/24/17.
+ */
+public class Inliner {
+
+    private int inlinedCalls = 0;
+    private final Set<String> inlinedFunctions = new TreeSet<>();
+
+    /**
+     * Instantiates a new inliner.
+     */
+    public Inliner() {
+    }
+
+    /**
+     * Inlines calls to trivial subroutines across a whole program.
+     *
+     * @param program every class name in the program mapped to its vm code, which isn't changed
+     * @return the class names mapped to their new vm code, in the same order
+     */
+    public Map<String, VMCode> inline(Map<String, VMCode> program) {
+        Map<String, Body> bodies = new HashMap<>();
+        program.forEach((className, code) -> findBodies(className, code, bodies));
+
+        Map<String, VMCode> inlined = new LinkedHashMap<>();
+        program.forEach((className, code) -> {
+            VMCode out = new VMCode();
+            for (int i = 0; i < code.size(); i++) {
+                Body body = code.op(i) == VMCode.Op.CALL ? bodies.get(code.name(i)) : null;
+                if (body == null || body.argCount != code.count(i)
+                        || (body.sameClassOnly && !body.className.equals(className))) {
+                    out.copy(code, i);
+                    continue;
+                }
+                String callee = code.name(i);
+                int last = body.replacement.size() - 1;
+                boolean resultDiscarded = i + 1 < code.size() && code.op(i + 1) == VMCode.Op.POP
+                        && code.segment(i + 1) == VMCode.Segment.TEMP && code.segmentIndex(i + 1) == 0
+                        && body.replacement.op(last) == VMCode.Op.PUSH;
+                int end = resultDiscarded ? last : last + 1;
+                for (int j = 0; j < end; j++) {
+                    out.copy(body.replacement, j);
+                }
+                if (resultDiscarded) {
+                    // do statements throw the result away, so don't push it in the first place
+                    i++;
+                }
+                inlinedCalls++;
+                inlinedFunctions.add(callee);
+            }
+            inlined.put(className, out);
+        });
+        return inlined;
+    }
+
+    /**
+     * Prints how many calls were inlined and which subroutines they were to.
+     */
+    public void printReport() {
+        System.out.println("Inlined " + inlinedCalls + " call(s) to " + inlinedFunctions.size() + " subroutine(s)");
+        inlinedFunctions.forEach(name -> System.out.println("  inlined " + name));
+    }
+
+    /*
+        looks through a class's functions for the ones simple enough to inline
+     */
+    private static void findBodies(String className, VMCode code, Map<String, Body> bodies) {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.op(i) != VMCode.Op.FUNCTION || code.count(i) != 0) {
+                continue;
+            }
+            int end = i + 1;
+            while (end < code.size() && code.op(end) != VMCode.Op.FUNCTION) {
+                end++;
+            }
+            Body body = matchBody(className, code, i + 1, end);
+            if (body != null) {
+                bodies.put(code.name(i), body);
+            }
+        }
+    }
+
+    /*
+        matches a function's code, from after its declaration to end, against the subroutines that can be inlined
+     */
+    private static Body matchBody(String className, VMCode code, int start, int end) {
+        if (end - start < 2 || code.op(end - 1) != VMCode.Op.RETURN) {
+            return null;
+        }
+        VMCode replacement = new VMCode();
+        boolean method = end - start >= 3 && code.isPush(start, VMCode.Segment.ARGUMENT, 0)
+                && code.op(start + 1) == VMCode.Op.POP && code.segment(start + 1) == VMCode.Segment.POINTER
+                && code.segmentIndex(start + 1) == 0;
+        int body = method ? start + 2 : start;
+        int length = end - 1 - body;
+        Integer constant = ConstantFolder.constantAt(code, body, end - 1);
+        if (constant != null) {
+            if (method) {
+                // the receiver was still evaluated
+                replacement.pop(VMCode.Segment.TEMP, 1);
+            }
+            ConstantFolder.pushConstant(replacement, constant);
+            return new Body(className, method ? 1 : 0, false, replacement);
+        }
+        if (method && length == 1 && code.op(body) == VMCode.Op.PUSH && code.segment(body) == VMCode.Segment.THIS) {
+            replacement.pop(VMCode.Segment.POINTER, 1);
+            replacement.push(VMCode.Segment.THAT, code.segmentIndex(body));
+            return new Body(className, 1, false, replacement);
+        }
+        if (method && length == 3 && code.isPush(body, VMCode.Segment.ARGUMENT, 1)
+                && code.op(body + 1) == VMCode.Op.POP && code.segment(body + 1) == VMCode.Segment.THIS
+                && code.isPush(body + 2, VMCode.Segment.CONSTANT, 0)) {
+            replacement.pop(VMCode.Segment.TEMP, 1);
+            replacement.pop(VMCode.Segment.POINTER, 1);
+            replacement.push(VMCode.Segment.TEMP, 1);
+            replacement.pop(VMCode.Segment.THAT, code.segmentIndex(body + 1));
+            replacement.push(VMCode.Segment.CONSTANT, 0);
+            return new Body(className, 2, false, replacement);
+        }
+        if (!method && length == 1 && code.op(body) == VMCode.Op.PUSH && code.segment(body) == VMCode.Segment.STATIC) {
+            // statics belong to the vm file they're used in, so this only works inside the class
+            replacement.push(VMCode.Segment.STATIC, code.segmentIndex(body));
+            return new Body(className, 0, true, replacement);
+        }
+        return null;
+    }
+
+    /*
+        what a call to an inlinable subroutine is replaced with
+     */
+    private static class Body {
+        private final String className;
+        private final int argCount;
+        private final boolean sameClassOnly;
+        private final VMCode replacement;
+
+        private Body(String className, int argCount, boolean sameClassOnly, VMCode replacement) {
+            this.className = className;
+            this.argCount = argCount;
+            this.sameClassOnly = sameClassOnly;
+            this.replacement = replacement;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Opens zip and jar archives as file systems, so .jack files can be read out of one and vm files written into one
+ * with the same Path code as for a directory. Nothing is unpacked to disk first: entries are read where they are, and
+ * an archive being written is put together when it's closed.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class JackArchive {
+
+    private JackArchive() {
+    }
+
+    /**
+     * Checks if a path names a zip or jar archive, going by its extension.
+     *
+     * @param path the path to check
+     * @return true for a .zip or .jar file
+     */
+    public static boolean isArchive(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".jar");
+    }
+
+    /**
+     * Checks if two paths name the same archive. An archive can't be read from and written to in the same build,
+     * since it can only be opened once at a time.
+     *
+     * @param input the path sources are read from
+     * @param output the path vm files are written to
+     * @return true if both are the same zip or jar archive
+     */
+    public static boolean isSameArchive(Path input, Path output) {
+        return isArchive(input) && isArchive(output)
+                && input.toAbsolutePath().normalize().equals(output.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Opens an archive as a file system, whose root is the top of the archive.
+     *
+     * @param archive the archive file
+     * @param create true to create the archive if it doesn't exist, an existing one keeps the entries it has
+     * @return the archive's file system, which has to be closed for anything written to it to be saved
+     * @throws IOException if the archive can't be opened
+     */
+    public static FileSystem open(Path archive, boolean create) throws IOException {
+        Path absolute = archive.toAbsolutePath().normalize();
+        if (create && absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+        Map<String, String> env = new HashMap<>();
+        env.put("create", Boolean.toString(create));
+        return FileSystems.newFileSystem(URI.create("jar:" + absolute.toUri()), env);
+    }
+}
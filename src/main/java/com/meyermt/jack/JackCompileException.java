@@ -0,0 +1,56 @@
+package com.meyermt.jack;
+
+/**
+ * Thrown when a .jack file can't be compiled, carrying the file and line the problem was found at.
+ * Created by michaelmeyer on 3/18/17.
+ */
+public class JackCompileException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final int line;
+    private final String reason;
+
+    /**
+     * Instantiates a new Jack compile exception.
+     *
+     * @param fileName the file being compiled
+     * @param line the line the problem was found at, starting from 1
+     * @param reason what went wrong
+     * @param cause the underlying exception, or null
+     */
+    public JackCompileException(String fileName, int line, String reason, Throwable cause) {
+        super(reason + " at " + fileName + ":" + line, cause);
+        this.fileName = fileName;
+        this.line = line;
+        this.reason = reason;
+    }
+
+    /**
+     * Gets the file being compiled.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the line the problem was found at.
+     *
+     * @return the line, starting from 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Gets what went wrong, without the file and line.
+     *
+     * @return the reason
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -1,36 +1,273 @@
 package com.meyermt.jack;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
- * Main driver for the Jack Compiler program. Uses reader to read in all .jack files, then passes to tokenizer and
- * compilation engine to create vm code. Finally, passes all filenames and their vm code lines to the writer.
+ * Main driver for the Jack Compiler program. Uses reader to find all .jack files, then reads each one and passes to
+ * tokenizer and compilation engine to create vm code. Finally, passes all filenames and their vm code lines to the writer.
+ * Files can be compiled on several threads with --jobs, output is still written in filename order. With --incremental
+ * only files that changed since the last build are compiled, and with --watch the compiler keeps running and
+ * recompiles files as they change. -O runs a peephole optimizer over the vm code before it's written, and
+ * --whole-program leaves out the subroutines and statics the program never uses. --stats reports how long reading,
+ * tokenizing, compiling and writing took, and --cost-report how expensive each function written is. --batch builds many
+ * projects in one run, sharing the worker threads between them. --recursive compiles the .jack files in every directory
+ * under the input, writing each one's output to the same directory under the output. --skip-unchanged leaves vm files
+ * that didn't change alone. Sources can be read from a zip or jar archive, and --output writes to another directory or
+ * into an archive.
  * Created by michaelmeyer on 2/24/17.
  */
 public class JackCompiler {
 
+    /**
+     * The compiler version, recorded in build manifests so that a new compiler doesn't reuse old output.
+     */
+    public static final String VERSION = "1.1";
+
     /**
      * The entry point of this application. Takes filename or dir args.
      *
-     * @param args a single file filename or a directory with .jack files
+     * @param args a single file filename or a directory with .jack files, optionally preceded by --jobs N
      */
     public static void main(String[] args) {
+        CompilerOptions options = CompilerOptions.parse(args);
+
+        ParallelCompiler compiler = new ParallelCompiler(options.getJobs());
+        compiler.setStringPool(options.isStringPool());
+        CostTable costTable = options.isCostReport() ? loadCostTable(options) : null;
+        if (options.isBatch()) {
+            compileBatch(options, compiler, costTable);
+            return;
+        }
 
-        JackFileReader reader = new JackFileReader(args[0]);
-        Map<String, List<String>> cleanFilesAndLines = reader.readFileOrFiles();
-        JackVMWriter writer = new JackVMWriter(reader.getInputPath());
-
-        cleanFilesAndLines.entrySet().stream()
-                .map(file -> {
-                    JackTokenizer tokenizer = new JackTokenizer();
-                    return tokenizer.tokenize(file);
-                })
-                .map(doc -> {
-                    CompilationEngine engine = new CompilationEngine();
-                    return engine.compile(doc);
-                })
-                //.forEach(writer::writeDocOut);
-                .forEach(writer::writeVMOut);
+        JackFileReader reader = newReader(options, options.getInputPath());
+        JackVMWriter writer = new JackVMWriter(reader.getInputPath(),
+                options.getOutput() != null ? Paths.get(options.getOutput()) : null);
+        try {
+            build(options, compiler, costTable, reader, writer);
+        } catch (IllegalArgumentException e) {
+            // the input isn't something that can be compiled
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (UncheckedIOException e) {
+            e.getCause().printStackTrace();
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (RuntimeException e) {
+            // a broken file shouldn't stop us watching, since fixing it is the next edit
+            if (!options.isWatch()) {
+                throw e;
+            }
+            System.out.println("Unable to compile: " + e.getMessage());
+        }
+
+        if (options.isWatch()) {
+            new WatchCompiler(reader.getInputPath(), writer, compiler).watch();
+        }
+    }
+
+    /*
+        Builds one project with the options given, printing whatever reports were asked for, and gives back how many
+        classes were written. Anything that goes wrong is thrown
+     */
+    private static int build(CompilerOptions options, ParallelCompiler compiler, CostTable costTable,
+                             JackFileReader reader, JackVMWriter writer) {
+        Iterator<JackSource> sources = reader.sourceIterator();
+        compiler.setParseTreeSink(options.isXml() ? writer::writeDocOut : null);
+        PeepholeOptimizer optimizer = options.isOptimize() ? new PeepholeOptimizer() : null;
+        compiler.setOptimizer(optimizer);
+        CompileStats stats = options.isStats() ? new CompileStats() : null;
+        compiler.setStats(stats);
+        writer.setStats(stats);
+        writer.setSkipUnchanged(options.isSkipUnchanged());
+        CostReport costReport = costTable != null ? new CostReport(costTable) : null;
+        BiConsumer<JackSource, Map.Entry<String, VMCode>> output = writer::writeVMOut;
+        if (costReport != null) {
+            output = output.andThen((source, classToVMCode) -> costReport.add(classToVMCode));
+        }
+        try {
+            if (options.isIncremental()) {
+                compileIncrementally(options, compiler, sources, writer, output);
+            } else if (options.isWholeProgram()) {
+                compileWholeProgram(compiler, sources, output, optimizer != null);
+            } else {
+                compiler.compileSources(sources, output);
+            }
+        } finally {
+            // an archive being written is only saved once it's closed
+            try {
+                writer.close();
+            } finally {
+                reader.close();
+            }
+        }
+        if (options.isSkipUnchanged()) {
+            writer.printReport();
+        }
+        if (optimizer != null) {
+            optimizer.printReport();
+        }
+        if (costReport != null) {
+            reportCosts(options, costReport);
+        }
+        if (stats != null) {
+            reportStats(options, stats);
+            // only the first build is reported, files recompiled while watching print their own times
+            compiler.setStats(null);
+            writer.setStats(null);
+        }
+        return writer.getWrittenCount() + writer.getUnchangedCount();
+    }
+
+    /*
+        Makes a reader for an input with the options that pick which files it reads
+     */
+    private static JackFileReader newReader(CompilerOptions options, String input) {
+        JackFileReader reader = new JackFileReader(input);
+        reader.setRecursive(options.isRecursive());
+        reader.setGlobs(options.getIncludes(), options.getExcludes());
+        return reader;
+    }
+
+    /*
+        Builds every project given, on workers they all share, and exits with an error if any of them failed
+     */
+    private static void compileBatch(CompilerOptions options, ParallelCompiler compiler, CostTable costTable) {
+        List<BatchCompiler.Project> projects;
+        try {
+            projects = BatchCompiler.readProjects(options.getInputPaths());
+        } catch (UncheckedIOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        BatchCompiler batch = new BatchCompiler();
+        compiler.keepWorkers();
+        boolean allBuilt;
+        try {
+            allBuilt = batch.run(projects, project -> build(options, compiler, costTable,
+                    newReader(options, project.getInput().toString()),
+                    new JackVMWriter(project.getInput(), project.getOutput())));
+        } finally {
+            compiler.shutdown();
+        }
+        batch.printSummary();
+        if (!allBuilt) {
+            System.exit(1);
+        }
+    }
+
+    /*
+        Loads the cost table asked for, or gives the default one
+     */
+    private static CostTable loadCostTable(CompilerOptions options) {
+        if (options.getCostTable() == null) {
+            return new CostTable();
+        }
+        try {
+            return CostTable.load(Paths.get(options.getCostTable()));
+        } catch (IOException e) {
+            System.out.println("Unable to read cost table from: " + options.getCostTable());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        // can't actually hit this but needed to compile
+        return null;
+    }
+
+    /*
+        Prints the cost report, or writes it as CSV when asked to
+     */
+    private static void reportCosts(CompilerOptions options, CostReport costReport) {
+        if (options.getCostCsv() == null) {
+            costReport.printTable(options.getCostSort());
+            return;
+        }
+        try {
+            costReport.writeCsv(Paths.get(options.getCostCsv()), options.getCostSort());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write cost report to: " + options.getCostCsv(), e);
+        }
+    }
+
+    /*
+        Prints the build stats, and writes them as JSON when asked to
+     */
+    private static void reportStats(CompilerOptions options, CompileStats stats) {
+        stats.finish();
+        stats.printReport(options.getStatsTop());
+        if (options.getStatsJson() != null) {
+            try {
+                stats.writeJson(Paths.get(options.getStatsJson()), options.getStatsTop());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write stats to: " + options.getStatsJson(), e);
+            }
+        }
+    }
+
+    /*
+        Compiles every source before writing any of them, so trivial subroutines can be inlined when optimizing, and
+        subroutines and statics nothing uses can be left out
+     */
+    private static void compileWholeProgram(ParallelCompiler compiler, Iterator<JackSource> sources,
+                                            BiConsumer<JackSource, Map.Entry<String, VMCode>> output, boolean optimize) {
+        Map<String, VMCode> compiled = new LinkedHashMap<>();
+        Map<String, JackSource> classSources = new HashMap<>();
+        compiler.compileSources(sources, (source, classToVMCode) -> {
+            JackSource other = classSources.put(classToVMCode.getKey(), source);
+            if (other != null) {
+                // calls are by class name, so a program can't tell two classes with the same name apart
+                throw new IllegalArgumentException("Class " + classToVMCode.getKey() + " is in both "
+                        + other.getRelativeName() + " and " + source.getRelativeName());
+            }
+            compiled.put(classToVMCode.getKey(), classToVMCode.getValue());
+        });
+        Map<String, VMCode> program = compiled;
+        if (optimize) {
+            // inline first so subroutines that are only ever inlined get removed as well
+            Inliner inliner = new Inliner();
+            program = inliner.inline(program);
+            inliner.printReport();
+        }
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        // classes with nothing left are still written, so an old vm file for them doesn't get loaded
+        eliminator.eliminate(program).entrySet()
+                .forEach(classToVMCode -> output.accept(classSources.get(classToVMCode.getKey()), classToVMCode));
+        eliminator.printReport();
+    }
+
+    /*
+        Compiles only the sources that changed since the last build, then saves the manifest and reports what was skipped
+     */
+    private static void compileIncrementally(CompilerOptions options, ParallelCompiler compiler, Iterator<JackSource> sources,
+                                             JackVMWriter writer, BiConsumer<JackSource, Map.Entry<String, VMCode>> output) {
+        Path outputDir;
+        try {
+            outputDir = writer.getOutputDir();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to find output directory for: " + options.getInputPath(), e);
+        }
+        BuildManifest manifest = new BuildManifest(outputDir, options.getBuildFingerprint(), options.isClean());
+        try {
+            compiler.compileSources(manifest.filterUnchanged(sources, outputDir), (source, classToVMCode) -> {
+                output.accept(source, classToVMCode);
+                manifest.recordCompiled(source, outputDir.resolve(source.getRelativeName(
+                        writer.getVMFileName(classToVMCode.getKey()))));
+            });
+        } finally {
+            // files that never got compiled are left out, so they're compiled again next time
+            manifest.save();
+        }
+        manifest.printReport();
     }
 }
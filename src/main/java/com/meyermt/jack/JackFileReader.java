@@ -1,20 +1,31 @@
 package com.meyermt.jack;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * Reads .jack files, either singularly or from a directory.
+ * Reads .jack files, either singularly or from a directory. When recursive, the .jack files in every directory under
+ * the input directory are read too. Include and exclude globs pick which files are read, and are matched against each
+ * file's path from the input directory, e.g. games/Main.jack. A zip or jar archive is read like a directory, straight
+ * out of the archive, and stays open until the reader is closed.
  * Created by michaelmeyer on 2/24/17.
  */
-public class JackFileReader {
+public class JackFileReader implements Closeable {
 
     private final Path inputPath;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private boolean recursive = false;
+    private FileSystem archive;
     private final static String JACK_EXT = ".jack";
 
     /**
@@ -35,40 +46,145 @@ public class JackFileReader {
         return this.inputPath;
     }
 
+    /**
+     * Asks for the .jack files in every directory under the input directory to be found, not just those in the input
+     * directory itself.
+     *
+     * @param recursive true to look in every directory under the input
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * Sets which .jack files are read. A file is read when it matches any include glob, or there are none, and
+     * doesn't match an exclude glob. A directory that matches an exclude glob is left out with everything under it.
+     *
+     * @param includeGlobs the globs of files to read
+     * @param excludeGlobs the globs of files and directories to leave out
+     * @throws IllegalArgumentException if a glob can't be understood
+     */
+    public void setGlobs(List<String> includeGlobs, List<String> excludeGlobs) {
+        includes.clear();
+        excludes.clear();
+        includeGlobs.forEach(glob -> includes.add(inputPath.getFileSystem().getPathMatcher("glob:" + glob)));
+        excludeGlobs.forEach(glob -> excludes.add(inputPath.getFileSystem().getPathMatcher("glob:" + glob)));
+    }
+
     /**
      * Reads file or files and returns the filenames along with their contents.
      *
-     * @return a map of filenames to their contents as a list of Strings.
+     * @return a map of filenames to their contents as a list of Strings, sorted by filename.
+     * @throws IllegalArgumentException if the input isn't a .jack file or a directory with .jack files
+     * @throws UncheckedIOException if a file can't be read
      */
     public Map<String, List<String>> readFileOrFiles() {
+        return listFileOrFiles().stream()
+                .map(file -> tryReadingLines(file))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (first, second) -> first, TreeMap::new));
+    }
+
+    /**
+     * Gets the file or files to compile, sorted by filename, without reading any of them. Each source is only read
+     * when it is compiled, so at most the files being compiled at the time are held in memory. When recursive, the
+     * directory tree is walked while the sources are being compiled, and sources come in the order they're found.
+     *
+     * @return an iterator over the sources
+     * @throws IllegalArgumentException if the input isn't a .jack file or a directory with .jack files, which when
+     *                                  recursive is only found out once the whole tree has been walked
+     */
+    public Iterator<JackSource> sourceIterator() {
+        Path sourceDir = getSourceDir();
+        if (recursive && Files.isDirectory(sourceDir)) {
+            return new JackSourceWalker(sourceDir, this::isIncluded, this::isExcluded);
+        }
+        Iterator<Path> files = listFileOrFiles().iterator();
+        return new Iterator<JackSource>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public JackSource next() {
+                return new JackSource(files.next());
+            }
+        };
+    }
+
+    /**
+     * Closes the archive being read from, if the input is one. Sources from it can't be read after this.
+     *
+     * @throws UncheckedIOException if the archive can't be closed
+     */
+    @Override
+    public void close() {
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to close archive: " + inputPath, e);
+            } finally {
+                archive = null;
+            }
+        }
+    }
+
+    /*
+        the directory to look for .jack files in, which is the top of the archive when the input is one
+     */
+    private Path getSourceDir() {
+        if (!JackArchive.isArchive(inputPath) || !Files.isRegularFile(inputPath)) {
+            return inputPath;
+        }
+        if (archive == null) {
+            try {
+                archive = JackArchive.open(inputPath, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open archive: " + inputPath, e);
+            }
+        }
+        return archive.getRootDirectories().iterator().next();
+    }
+
+    /*
+        helper method to find the file or the .jack files in the directory
+     */
+    private List<Path> listFileOrFiles() {
         // if the filename doesn't have the .vm extension we will check if it is a directory and if it has VM files
         if (!inputPath.toString().endsWith(JACK_EXT)) {
-            File input = inputPath.toFile();
-            if (input.isDirectory()) {
-                List<File> vmFiles = Arrays.asList(input.listFiles()).stream()
-                        .filter(file -> file.isFile())
-                        .filter(file -> file.getAbsolutePath().endsWith(JACK_EXT))
-                        .collect(Collectors.toList());
+            Path sourceDir = getSourceDir();
+            if (Files.isDirectory(sourceDir)) {
+                List<Path> vmFiles = new ArrayList<>();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(sourceDir, "*" + JACK_EXT)) {
+                    for (Path file : files) {
+                        Path relative = sourceDir.relativize(file);
+                        if (Files.isRegularFile(file) && isIncluded(relative) && !isExcluded(relative)) {
+                            vmFiles.add(file);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to list directory: " + sourceDir, e);
+                }
+                vmFiles.sort(Comparator.comparing(path -> path.getFileName().toString()));
                 if (vmFiles.isEmpty()) {
-                    System.out.println("Directory specified has no .vm files. Please re-run with a new directory");
-                    System.exit(1);
-                } else {
-                    return vmFiles.stream()
-                            .map(file -> tryReadingLines(file.toPath()))
-                            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                    throw new IllegalArgumentException("Directory specified has no .vm files. Please re-run with a new directory");
                 }
+                return vmFiles;
             } else {
-                System.out.println("Only able to read files with .vm extension or a directory containing .vm files. Please rename and try again.");
-                System.exit(1);
+                throw new IllegalArgumentException("Only able to read files with .vm extension or a directory containing .vm files. Please rename and try again.");
             }
         } else {
-            Map<String, List<String>> oneFileMap = new HashMap<>();
-            Map.Entry<String, List<String>> oneFile = tryReadingLines(inputPath);
-            oneFileMap.put(oneFile.getKey(), oneFile.getValue());
-            return oneFileMap;
+            return Collections.singletonList(inputPath);
         }
-        // can't actually hit this but needed to compile
-        return null;
+    }
+
+    private boolean isIncluded(Path relative) {
+        return includes.isEmpty() || includes.stream().anyMatch(include -> include.matches(relative));
+    }
+
+    private boolean isExcluded(Path relative) {
+        return excludes.stream().anyMatch(exclude -> exclude.matches(relative));
     }
 
     /*
@@ -77,27 +193,10 @@ public class JackFileReader {
     private Map.Entry<String, List<String>> tryReadingLines(Path filePath) {
         try {
             List<String> fileLines = Files.readAllLines(filePath);
-            List<String> cleanFileLines = removeComments(fileLines);
-            return new AbstractMap.SimpleImmutableEntry<>(filePath.getFileName().toString(), cleanFileLines);
+            return new AbstractMap.SimpleImmutableEntry<>(filePath.getFileName().toString(), fileLines);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Unable to read file from: " + filePath);
-            System.exit(1);
+            throw new UncheckedIOException("Unable to read file from: " + filePath, e);
         }
-        return null;
-    }
-
-    /*
-        Removes tabs, and comments from code
-    */
-    private List<String> removeComments(List<String> fileLines) {
-        return fileLines.stream()
-                .map(commentful -> commentful.replaceAll("(//.*)", ""))
-                // remove tab characters, although in theory there shouldn't be any
-                .map(tabful -> tabful.replaceAll("\t", ""))
-                // remove blank lines after comment removal in case comment was the whole line
-                .filter(line -> !line.equals(""))
-                .collect(Collectors.toList());
     }
 
 }
@@ -0,0 +1,129 @@
+package com.meyermt.jack;
+
+import java.nio.CharBuffer;
+
+/**
+ * Single pass lexer that turns .jack source chars straight into a token stream. Comments, whitespace and string
+ * literals are handled as it goes, so source never has to be split into lines or have comments stripped first, and
+ * nothing is allocated per character. Keywords are told apart from identifiers by the token stream's interned value
+ * table and symbols by a lookup table on the char, so classifying a token doesn't depend on how many kinds there are.
+ * Created by michaelmeyer on 3/14/17.
+ */
+public class JackLexer {
+
+    private static final boolean[] SYMBOL_CHARS = new boolean[128];
+
+    static {
+        for (String symbol : JackTokenizer.symbols) {
+            SYMBOL_CHARS[symbol.charAt(0)] = true;
+        }
+    }
+
+    private final String fileName;
+
+    /**
+     * Instantiates a new Jack lexer.
+     *
+     * @param fileName the name of the file being lexed, used in error messages
+     */
+    public JackLexer(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Lexes a buffer of source chars into tokens. The buffer's backing array is used directly when it has one.
+     *
+     * @param source the source code, from its position to its limit
+     * @return the source as a token stream
+     */
+    public TokenStream lex(CharBuffer source) {
+        if (source.hasArray() && source.arrayOffset() + source.position() == 0) {
+            return lex(source.array(), source.limit());
+        }
+        char[] chars = new char[source.remaining()];
+        source.duplicate().get(chars);
+        return lex(chars, chars.length);
+    }
+
+    /**
+     * Lexes the source chars into tokens. The stream keeps the source buffer and its tokens refer to ranges of it.
+     *
+     * @param source the buffer holding the source code
+     * @param length the number of chars of the buffer to lex
+     * @return the source as a token stream
+     */
+    public TokenStream lex(char[] source, int length) {
+        TokenStream tokens = new TokenStream(source, length);
+        int line = 1;
+        int i = 0;
+        while (i < length) {
+            char c = source[i];
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '\uFEFF') {
+                i++;
+            } else if (c == '/' && i + 1 < length && source[i + 1] == '/') {
+                // line comment runs up to the newline, which is left for the loop to count
+                i += 2;
+                while (i < length && source[i] != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && source[i + 1] == '*') {
+                int startLine = line;
+                i += 2;
+                while (i < length && !(source[i] == '*' && i + 1 < length && source[i + 1] == '/')) {
+                    if (source[i] == '\n') {
+                        line++;
+                    }
+                    i++;
+                }
+                if (i >= length) {
+                    throw error("Block comment is never closed", startLine);
+                }
+                i += 2;
+            } else if (c == '"') {
+                int start = i + 1;
+                i = start;
+                while (i < length && source[i] != '"' && source[i] != '\n') {
+                    i++;
+                }
+                if (i >= length || source[i] != '"') {
+                    throw error("String literal is never closed", line);
+                }
+                tokens.add(TokenStream.STRING_CONST, start, i - start);
+                i++;
+            } else if (c >= '0' && c <= '9') {
+                int start = i;
+                while (i < length && source[i] >= '0' && source[i] <= '9') {
+                    i++;
+                }
+                tokens.add(TokenStream.INT_CONST, start, i - start);
+            } else if (isWordStart(c)) {
+                int start = i;
+                while (i < length && isWordPart(source[i])) {
+                    i++;
+                }
+                tokens.addWord(start, i - start);
+            } else if (c < SYMBOL_CHARS.length && SYMBOL_CHARS[c]) {
+                tokens.add(TokenStream.SYMBOL, i, 1);
+                i++;
+            } else {
+                throw error("Unexpected character '" + c + "'", line);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWordStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWordPart(char c) {
+        return isWordStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private JackCompileException error(String message, int line) {
+        return new JackCompileException(fileName, line, message, null);
+    }
+}
@@ -0,0 +1,162 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single .jack file waiting to be compiled. Nothing is read until read() is called, and then the whole file comes
+ * off a file channel into one buffer, so a file costs a single char buffer rather than a String per line. A source
+ * found further down a directory tree knows the directory it was found in, so its output can go in the same place.
+ * An incremental build has the bytes hashed as they're read, so what it records is what was actually compiled, even if
+ * the file is saved again while it's compiling.
+ * Created by michaelmeyer on 3/15/17.
+ */
+public class JackSource {
+
+    // files at least this big are memory mapped rather than read into a heap buffer
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final Path path;
+    private final Path directory;
+    private long size = -1;
+    private boolean hashContents = false;
+    private String contentHash;
+
+    /**
+     * Instantiates a new Jack source at the top of the input.
+     *
+     * @param path the path of the .jack file
+     */
+    public JackSource(Path path) {
+        this(path, path.getFileSystem().getPath(""));
+    }
+
+    /**
+     * Instantiates a new Jack source found in a directory under the input.
+     *
+     * @param path the path of the .jack file
+     * @param directory the directory it was found in, relative to the input directory, or an empty path for the top
+     */
+    public JackSource(Path path, Path directory) {
+        this.path = path;
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the path of the file.
+     *
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the file name, e.g. Main.jack.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return path.getFileName().toString();
+    }
+
+    /**
+     * Gets the directory the file was found in, relative to the input directory.
+     *
+     * @return the directory, an empty path for a file at the top of the input
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the file name with the directory it was found in, e.g. games/Main.jack, with / between directories on
+     * every platform. This tells apart files with the same name in different directories.
+     *
+     * @return the relative file name
+     */
+    public String getRelativeName() {
+        return getRelativeName(getFileName());
+    }
+
+    /**
+     * Gets the name a file of this name would have in the same directory as this one, relative to the input.
+     *
+     * @param fileName the file name, e.g. Main.vm
+     * @return the relative file name, e.g. games/Main.vm
+     */
+    public String getRelativeName(String fileName) {
+        String dirName = directory.toString();
+        if (dirName.isEmpty()) {
+            return fileName;
+        }
+        return dirName.replace(directory.getFileSystem().getSeparator(), "/") + "/" + fileName;
+    }
+
+    /**
+     * Gets the size of the file as it was last read.
+     *
+     * @return the size in bytes, or -1 if it hasn't been read
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Asks for the file's bytes to be hashed whenever it's read.
+     *
+     * @param hashContents true to hash the bytes read
+     */
+    public void setHashContents(boolean hashContents) {
+        this.hashContents = hashContents;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the bytes last read, if they were asked to be hashed.
+     *
+     * @return the hash as lowercase hex, or null if the file hasn't been read with hashing on
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Reads the file and decodes it as UTF-8.
+     *
+     * @return the file contents, with a backing array starting at position 0
+     * @throws UncheckedIOException if the file can't be read
+     */
+    public CharBuffer read() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            ByteBuffer bytes;
+            // files in an archive come off a channel that can't be mapped
+            if (size >= MAP_THRESHOLD && path.getFileSystem() == FileSystems.getDefault()) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // keep reading until the buffer is full or the file ends
+                }
+                bytes.flip();
+            }
+            if (hashContents) {
+                contentHash = BuildManifest.hashBytes(bytes);
+            }
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read file from: " + path, e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
+
+/**
+ * Finds the .jack files anywhere under a directory, walking it on a thread of its own and handing each file out as
+ * soon as it's found, so the first files are compiling while the rest of the tree is still being walked. The walk
+ * reads each entry's attributes once, and excluded directories aren't walked at all. Each directory's entries are
+ * taken in name order, going into a subdirectory where its name comes, so files always come out in the same order
+ * whatever order the file system lists them in. Each file knows the directory it was found in so its output can
+ * mirror the tree.
+ * Created by michaelmeyer on 3/25/17.
+ */
+public class JackSourceWalker implements Iterator<JackSource> {
+
+    private static final String JACK_EXT = ".jack";
+
+    private final Path root;
+    private final Predicate<Path> include;
+    private final Predicate<Path> exclude;
+    // only paths are queued, which are small next to the files, so the walk never has to wait on the compiler
+    private final BlockingQueue<JackSource> found = new LinkedBlockingQueue<>();
+    // queued after the last file, whether the walk finished or failed
+    private final JackSource end;
+    private volatile RuntimeException failure;
+    private JackSource next;
+    private boolean anyFound = false;
+
+    /**
+     * Instantiates a new walker and starts walking.
+     *
+     * @param root the directory to walk
+     * @param include checks a .jack file's path relative to the root, true to compile it
+     * @param exclude checks a file or directory's path relative to the root, true to leave it and everything under it
+     *                out
+     */
+    public JackSourceWalker(Path root, Predicate<Path> include, Predicate<Path> exclude) {
+        this.root = root;
+        this.include = include;
+        this.exclude = exclude;
+        this.end = new JackSource(root);
+        Thread walker = new Thread(this::walk, "jack-source-walker");
+        walker.setDaemon(true);
+        walker.start();
+    }
+
+    /**
+     * Checks if there's another source, waiting for the walk to find one or finish.
+     *
+     * @return true if there's another source
+     * @throws UncheckedIOException if a directory couldn't be walked
+     * @throws IllegalArgumentException if the walk finished without finding any .jack files
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = take();
+        }
+        if (next != end) {
+            return true;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (!anyFound) {
+            throw new IllegalArgumentException("Directory specified has no .jack files under it. Please re-run with a new directory");
+        }
+        return false;
+    }
+
+    @Override
+    public JackSource next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        JackSource source = next;
+        next = null;
+        anyFound = true;
+        return source;
+    }
+
+    /*
+        walks the tree on the walker thread, queueing each file to compile
+     */
+    private void walk() {
+        try {
+            walkDirectory(root);
+        } catch (IOException e) {
+            failure = new UncheckedIOException("Unable to walk directory: " + root, e);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            found.add(end);
+        }
+    }
+
+    /*
+        queues the files in a directory and walks its subdirectories, in name order. Links aren't followed, the same
+        as Files.walkFileTree
+     */
+    private void walkDirectory(Path dir) throws IOException {
+        for (Path entry : sortedEntries(dir)) {
+            Path relative = root.relativize(entry);
+            BasicFileAttributes attrs =
+                    Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+                if (!exclude.test(relative)) {
+                    walkDirectory(entry);
+                }
+            } else if (attrs.isRegularFile() && entry.getFileName().toString().endsWith(JACK_EXT)
+                    && include.test(relative) && !exclude.test(relative)) {
+                Path directory = relative.getParent();
+                found.add(new JackSource(entry, directory != null ? directory : root.getFileSystem().getPath("")));
+            }
+        }
+    }
+
+    /*
+        lists a directory by name, since file systems list entries in whatever order they're stored in
+     */
+    private static List<Path> sortedEntries(Path dir) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(entries::add);
+        }
+        entries.sort(Comparator.comparing(entry -> entry.getFileName().toString()));
+        return entries;
+    }
+
+    private JackSource take() {
+        try {
+            return found.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while finding .jack files", e);
+        }
+    }
+}
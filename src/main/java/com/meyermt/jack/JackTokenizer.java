@@ -3,22 +3,19 @@ package com.meyermt.jack;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.nio.CharBuffer;
 import java.util.*;
-import java.util.stream.Stream;
 
 /**
- * Tokenizes .jack source code into a flat list of XML tokens to be processed by the compilation engine.
+ * Tokenizes .jack source code into a compact token stream to be processed by the compilation engine, or into a flat
+ * list of XML tokens.
  * Created by michaelmeyer on 2/24/17.
  */
 public class JackTokenizer {
 
-    private List<String> savedStringLiterals = new ArrayList<>();
     private Document doc;
     private Element rootElement;
-    private int savedIndexCounter = 0;
 
     /**
      * The constant keywords.
@@ -31,18 +28,10 @@ public class JackTokenizer {
     public static final List<String> symbols = Arrays.asList(new String[] { "{", "}", "(", ")", "[", "]", ".", ";", ",", "+", "-", "*", "/", "&", "|", "<", ">", "=", "~"});
 
     /**
-     * Instantiates a new Jack tokenizer.
+     * Instantiates a new Jack tokenizer. The XML document is only made once tokenize is called, so tokenizing to a
+     * stream doesn't pay for one.
      */
     public JackTokenizer() {
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            doc = docBuilder.newDocument();
-            rootElement = doc.createElement("tokens");
-            doc.appendChild(rootElement);
-        } catch (ParserConfigurationException e) {
-            System.out.println("hit an error");
-        }
     }
 
     /**
@@ -52,166 +41,70 @@ public class JackTokenizer {
      * @return the jack filename mapped to an XML Document of its source as tokens
      */
     public Map.Entry<String, Document> tokenize(Map.Entry<String, List<String>> jackFileToLines) {
-            List<String> unblockedLines = removeBlockComments(jackFileToLines.getValue());
-            unblockedLines.stream()
-                .flatMap(line -> tokenizeLine(line))
-                .filter(line -> !line.equals(""))
-                .forEach(token -> processXML(token));
+            if (doc == null) {
+                createDocument();
+            }
+            TokenStream tokens = tokenizeToStream(jackFileToLines).getValue();
+            for (int i = 0; i < tokens.size(); i++) {
+                processXML(tokens.kindAt(i), tokens.valueAt(i));
+            }
             return new AbstractMap.SimpleEntry<>(jackFileToLines.getKey(), doc);
     };
 
-    /*
-        Processes each token that is passed in by identifying which kind of token it is and passing to further processing
-     */
-    private void processXML(String token) {
-        if (keywords.contains(token)) {
-            processKeyword(token);
-        } else if (symbols.contains(token)) {
-            processSymbol(token);
-        } else if (token.matches("^-?\\d+$")) {
-            processInt(token);
-        } else if (token.matches("^\".+\"$")) {
-            processStringLiteral(token, savedIndexCounter);
-            savedIndexCounter++;
-        } else {
-            processIdentifier(token);
-        }
-    }
-
-    /*
-        Given a line of source, passes to have literal strings compressed,
-        spaces put in between symbols (because there may not be space),
-        and then all tokens split on whitespace. This creates stream of tokens.
-     */
-    private Stream<String> tokenizeLine(String line) {
-        line = compressAndSaveStringLiterals(line);
-        line = spaceOutSymbols(line);
-        String[] tokens = line.split("\\s+");
-        return Arrays.asList(tokens).stream();
-    }
-
-    /*
-        Indentifies string literals, saves their "true form" and compresses
-        them into one "word" that can be processed later as one token
+    /**
+     * Tokenizes source code that is passed in and returns it as a compact token stream for the compilation engine.
+     *
+     * @param jackFileToLines the jack filename mapped to lines of source code
+     * @return the jack filename mapped to a stream of its source as tokens
      */
-    private String compressAndSaveStringLiterals(String line) {
-        boolean inLiteral = false;
-        boolean literalExists = false;
-        String savedStringLiteral = "";
-        StringBuilder compressedLiteralLine = new StringBuilder();
-        for (int i = 0; i < line.length(); i++) {
-            if (line.charAt(i) == '"') {
-                literalExists = true;
-                if (inLiteral) {
-                    inLiteral = false;
-                } else {
-                    inLiteral = true;
-                }
-            }
-            if (inLiteral && !(line.charAt(i) == '"')) {
-                savedStringLiteral += line.charAt(i);
-                if (!(line.charAt(i) == ' ')) {
-                    compressedLiteralLine.append(line.charAt(i));
-                }
-            } else {
-                compressedLiteralLine.append(line.charAt(i));
-            }
+    public Map.Entry<String, TokenStream> tokenizeToStream(Map.Entry<String, List<String>> jackFileToLines) {
+        int length = 0;
+        for (String line : jackFileToLines.getValue()) {
+            length += line.length() + 1;
         }
-        if (literalExists) {
-            savedStringLiterals.add(savedStringLiteral);
+        char[] source = new char[length];
+        int offset = 0;
+        for (String line : jackFileToLines.getValue()) {
+            line.getChars(0, line.length(), source, offset);
+            offset += line.length();
+            source[offset++] = '\n';
         }
-        return compressedLiteralLine.toString();
+        JackLexer lexer = new JackLexer(jackFileToLines.getKey());
+        return new AbstractMap.SimpleEntry<>(jackFileToLines.getKey(), lexer.lex(source, length));
     }
 
-    /*
-        Looks for symbols and makes sure there is space around them
+    /**
+     * Tokenizes a source file that was read into a buffer and returns it as a compact token stream for the
+     * compilation engine. The token stream lexes the buffer in place, without splitting it into lines.
+     *
+     * @param fileName the jack filename
+     * @param source the source code
+     * @return the jack filename mapped to a stream of its source as tokens
      */
-    private String spaceOutSymbols(String line) {
-        StringBuilder spacedOutLine = new StringBuilder();
-        boolean isStringLiteral = false;
-        for (int i = 0; i < line.length(); i++) {
-            String s = line.substring(i, i + 1);
-            if (s.equals("\"")) {
-                isStringLiteral = !isStringLiteral;
-            }
-            if (symbols.contains(s) && !isStringLiteral) {
-                spacedOutLine.append(" ");
-                spacedOutLine.append(s);
-                spacedOutLine.append(" ");
-            } else {
-                spacedOutLine.append(s);
-            }
-        }
-        return spacedOutLine.toString();
+    public Map.Entry<String, TokenStream> tokenizeToStream(String fileName, CharBuffer source) {
+        JackLexer lexer = new JackLexer(fileName);
+        return new AbstractMap.SimpleEntry<>(fileName, lexer.lex(source));
     }
 
     /*
-        Processes a token identified as a keyword and puts it in xml doc
+        Makes the XML document tokens are added to
      */
-    private void processKeyword(String token) {
-        Element keyword = doc.createElement("keyword");
-        keyword.appendChild(doc.createTextNode(" " + token + " "));
-        rootElement.appendChild(keyword);
-    }
-
-    /*
-        Processes a token identified as a symbol and puts it in xml doc
-    */
-    private void processSymbol(String token) {
-        Element symbol = doc.createElement("symbol");
-        symbol.appendChild(doc.createTextNode(" " + token + " "));
-        rootElement.appendChild(symbol);
-    }
-
-    /*
-       Processes a token identified as an integer and puts it in xml doc
-    */
-    private void processInt(String token) {
-        Element integerConstant = doc.createElement("integerConstant");
-        integerConstant.appendChild(doc.createTextNode(" " + token + " "));
-        rootElement.appendChild(integerConstant);
-    }
-
-    /*
-        Processes a token identified as a String literal and puts it in xml doc.
-        Processing involves grabbing the "true" value. Thus, this process does depend
-        on ordering to be preserved.
-    */
-    private void processStringLiteral(String token, int savedStringIndex) {
-        Element stringConstant = doc.createElement("stringConstant");
-        String saved = savedStringLiterals.get(savedStringIndex);
-        stringConstant.appendChild(doc.createTextNode(" " + saved + " "));
-        rootElement.appendChild(stringConstant);
-    }
-
-    /*
-       Processes a token identified as an identifier and puts it in xml doc
-    */
-    private void processIdentifier(String token) {
-        Element identifier = doc.createElement("identifier");
-        identifier.appendChild(doc.createTextNode(" " + token + " "));
-        rootElement.appendChild(identifier);
+    private void createDocument() {
+        try {
+            doc = DocFactory.newDocumentBuilder().newDocument();
+            rootElement = doc.createElement("tokens");
+            doc.appendChild(rootElement);
+        } catch (ParserConfigurationException e) {
+            System.out.println("hit an error");
+        }
     }
 
     /*
-        Goes through the source and looks for block comments it can remove.
-        (could add this to reader in future)
+        Processes each token by putting an element named for its kind in the xml doc
      */
-    private static List<String> removeBlockComments(List<String> blockedLines) {
-        List<String> unBlockedLines = new ArrayList<>();
-        boolean blockStarted = false;
-        String blockPattern = "(\\**)(\\\\*)";
-        for (String line : blockedLines) {
-            if (line.contains("/*") || blockStarted) {
-                if (line.contains("*/")) {
-                    blockStarted = false;
-                } else {
-                    blockStarted = true;
-                }
-            } else {
-                unBlockedLines.add(line);
-            }
-        }
-        return unBlockedLines;
+    private void processXML(byte kind, String value) {
+        Element element = doc.createElement(TokenStream.kindName(kind));
+        element.appendChild(doc.createTextNode(" " + value + " "));
+        rootElement.appendChild(element);
     }
 }
@@ -1,22 +1,41 @@
 package com.meyermt.jack;
 
+import org.w3c.dom.Document;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.List;
 import java.util.Map;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 
 /**
- * Writes all VM documents for each file.
+ * Writes all VM documents for each file, and XML parse trees when asked for. A class compiled from a source found in a
+ * directory under the input is written to the same directory under the output directory. When asked to, vm files
+ * that already hold the code being written are left alone, so their modified times only change when their code does,
+ * and changed ones are replaced all at once. An output directory named like a zip or jar archive is written as one,
+ * which is saved when the writer is closed, and the output of an archive goes to a directory next to it named after it.
  * Created by michaelmeyer on 2/27/17.
  */
-public class JackVMWriter {
+public class JackVMWriter implements Closeable {
 
     private final Path outputPath;
+    private final Path outputDir;
+    private FileSystem archive;
+    private CompileStats stats;
+    private boolean skipUnchanged = false;
+    private int writtenCount = 0;
+    private int unchangedCount = 0;
     private final static String JACK_EXT = ".jack";
     private final static String XML_EXT = ".xml";
     private final static String VM_EXT = ".vm";
@@ -27,40 +46,247 @@ public class JackVMWriter {
      * @param outputPath the output path
      */
     public JackVMWriter(Path outputPath) {
+        this(outputPath, null);
+    }
+
+    /**
+     * Instantiates a new Jack VM file writer that writes somewhere other than next to the sources.
+     *
+     * @param outputPath the output path, named the same way as for writing next to the sources
+     * @param outputDir the directory or zip or jar archive to write to, which is created if it doesn't exist, or null to
+     *                  write next to the sources
+     */
+    public JackVMWriter(Path outputPath, Path outputDir) {
         this.outputPath = outputPath;
+        this.outputDir = outputDir;
+    }
+
+
+    /**
+     * Asks for the time spent writing each class to be added to the stats of the file it was compiled from.
+     *
+     * @param stats the stats to add to, or null to stop collecting them
+     */
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Asks for vm files that already hold exactly the code being written to be left as they are. Files that did change
+     * are written to a temporary file first and then moved into place, so they're never left half written.
+     *
+     * @param skipUnchanged true to leave unchanged files alone
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Write vm code out to file. The file is streamed straight from the instructions, with '\n' line endings on every
+     * platform.
+     *
+     * @param classToVMCode the class name to vm code mapping
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public void writeVMOut(Map.Entry<String, VMCode> classToVMCode) {
+        writeVMOut(null, classToVMCode);
+    }
+
+    /**
+     * Write vm code out to file, in the directory matching the one the source was found in.
+     *
+     * @param source the source the class was compiled from, or null to write it at the top of the output directory
+     * @param classToVMCode the class name to vm code mapping
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public void writeVMOut(JackSource source, Map.Entry<String, VMCode> classToVMCode) {
+        String outputFileName = getVMFileName(classToVMCode.getKey());
+        FileStats fileStats = null;
+        if (stats != null) {
+            fileStats = stats.forClass(classToVMCode.getKey());
+        } else if (FileStats.isWanted(false)) {
+            fileStats = new FileStats(classToVMCode.getKey() + JACK_EXT, false);
+        }
+        try {
+            if (fileStats != null) {
+                fileStats.begin(CompileStats.Phase.WRITE);
+            }
+            Path outputPath = getOutputDir(source).resolve(outputFileName);
+            if (!skipUnchanged) {
+                VMEmitter.write(classToVMCode.getValue(), outputPath);
+                writtenCount++;
+            } else if (VMEmitter.matches(classToVMCode.getValue(), outputPath)) {
+                unchangedCount++;
+            } else {
+                VMEmitter.writeAtomically(classToVMCode.getValue(), outputPath);
+                writtenCount++;
+            }
+            if (fileStats != null) {
+                fileStats.end(CompileStats.Phase.WRITE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Issue encountered writing output file for: " + outputFileName, e);
+        }
+    }
+
+    /**
+     * Gets how many vm files have been written.
+     *
+     * @return the written file count
+     */
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Gets how many vm files were left alone because they already held the code being written.
+     *
+     * @return the unchanged file count
+     */
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Prints how many vm files were written and how many were left unchanged.
+     */
+    public void printReport() {
+        System.out.println("Wrote " + writtenCount + " vm file(s), left " + unchangedCount + " unchanged file(s) alone");
+    }
+
+    /**
+     * Write a class's XML parse tree out to file.
+     *
+     * @param classToDoc the class name to parse tree mapping
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public void writeDocOut(Map.Entry<String, Document> classToDoc) {
+        writeDocOut(null, classToDoc);
+    }
+
+    /**
+     * Write a class's XML parse tree out to file, in the directory matching the one the source was found in.
+     *
+     * @param source the source the class was compiled from, or null to write it at the top of the output directory
+     * @param classToDoc the class name to parse tree mapping
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public void writeDocOut(JackSource source, Map.Entry<String, Document> classToDoc) {
+        String outputFileName = getOutputFileName(classToDoc.getKey(), XML_EXT);
+        Path outputPath = null;
+        try {
+            outputPath = getOutputDir(source).resolve(outputFileName);
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            try (OutputStream out = Files.newOutputStream(outputPath)) {
+                transformer.transform(new DOMSource(classToDoc.getValue()), new StreamResult(out));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Issue encountered writing output file for: " + outputFileName, e);
+        } catch (TransformerException e) {
+            throw new UncheckedIOException("Issue encountered writing output file for: " + outputFileName,
+                    new IOException(e));
+        } catch (StackOverflowError e) {
+            // the serializer recurses once per element, so a deeply nested expression can compile but not be written
+            deleteQuietly(outputPath);
+            throw new UncheckedIOException("Issue encountered writing output file for: " + outputFileName,
+                    new IOException("Parse tree nested too deeply to write out"));
+        }
     }
 
+    /*
+        removes a partly written file, leaving it if it can't be removed since the write has failed anyway
+     */
+    private static void deleteQuietly(Path path) {
+        try {
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            // the original failure is the one worth reporting
+        }
+    }
 
     /**
-     * Write vm lines out to file.
+     * Gets the name of the vm file a class is written to. A single .jack file keeps its own name, while classes from
+     * a directory are named after the class.
      *
-     * @param classToVMLines the file name to vm lines mapping
+     * @param className the name of the compiled class
+     * @return the vm file name
+     */
+    public String getVMFileName(String className) {
+        return getOutputFileName(className, VM_EXT);
+    }
+
+    /*
+        names output after a single .jack file, or after the class when compiling a directory
      */
-    public void writeVMOut(Map.Entry<String, List<String>> classToVMLines) {
-        String fileName = outputPath.getFileName().toString();
-        String className = classToVMLines.getKey();
-        List<String> vmCode = classToVMLines.getValue();
+    private String getOutputFileName(String className, String extension) {
         if (outputPath.toString().endsWith(JACK_EXT)) {
-            String outputFileName = fileName.replace(JACK_EXT, VM_EXT);
-            try {
-                String outputDir = outputPath.toRealPath(NOFOLLOW_LINKS).getParent().toString();
-                Path outputPath = Paths.get(outputDir, outputFileName);
-                Files.write(outputPath, vmCode, Charset.defaultCharset());
-            } catch (IOException e) {
-                System.out.println("Issue encountered writing output file for: " + outputFileName);
-                e.printStackTrace();
-                System.exit(1);
+            return outputPath.getFileName().toString().replace(JACK_EXT, extension);
+        } else {
+            return className.concat(extension);
+        }
+    }
+
+    /**
+     * Gets the directory vm files are written to, which is the directory of a single .jack file or the input
+     * directory itself, unless another one was given. For an archive it's the top of the archive, and an archive
+     * being read from is written next to rather than into.
+     *
+     * @return the real path of the output directory
+     * @throws IOException if the input path doesn't exist, or the output directory can't be created
+     */
+    public Path getOutputDir() throws IOException {
+        if (outputDir != null && JackArchive.isArchive(outputDir)) {
+            if (archive == null) {
+                archive = JackArchive.open(outputDir, true);
             }
+            return archive.getRootDirectories().iterator().next();
+        } else if (outputDir != null) {
+            return Files.createDirectories(outputDir).toRealPath();
+        } else if (JackArchive.isArchive(outputPath) && Files.isRegularFile(outputPath)) {
+            String archiveName = outputPath.getFileName().toString();
+            Path besideArchive = outputPath.resolveSibling(archiveName.substring(0, archiveName.lastIndexOf('.')));
+            return Files.createDirectories(besideArchive).toRealPath();
+        } else if (outputPath.toString().endsWith(JACK_EXT)) {
+            return outputPath.toRealPath(NOFOLLOW_LINKS).getParent();
         } else {
-            String outputFileName = className.concat(VM_EXT);
+            return outputPath.toRealPath(NOFOLLOW_LINKS);
+        }
+    }
+
+    /**
+     * Gets the directory the output of a source is written to, which mirrors the directory the source was found in
+     * under the input. It's created if it doesn't exist.
+     *
+     * @param source the source, or null for the top of the output directory
+     * @return the real path of the directory
+     * @throws IOException if the input path doesn't exist, or the directory can't be created
+     */
+    public Path getOutputDir(JackSource source) throws IOException {
+        if (source == null || source.getDirectory().toString().isEmpty()) {
+            return getOutputDir();
+        }
+        return Files.createDirectories(getOutputDir().resolve(source.getDirectory().toString()));
+    }
+
+    /**
+     * Closes the archive being written to, if the output is one, which saves it with everything written so far.
+     *
+     * @throws UncheckedIOException if the archive can't be saved
+     */
+    @Override
+    public void close() {
+        if (archive != null) {
             try {
-                String outputDir = outputPath.toRealPath(NOFOLLOW_LINKS).toString();
-                Path outputPath = Paths.get(outputDir, outputFileName);
-                Files.write(outputPath, vmCode, Charset.defaultCharset());
+                archive.close();
             } catch (IOException e) {
-                System.out.println("Issue encountered writing output file for: " + outputFileName);
-                e.printStackTrace();
-                System.exit(1);
+                throw new UncheckedIOException("Unable to save archive: " + outputDir, e);
+            } finally {
+                archive = null;
             }
         }
     }
@@ -0,0 +1,346 @@
+package com.meyermt.jack;
+
+import org.w3c.dom.Document;
+
+import java.nio.CharBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the tokenizer and compilation engine over many files at once. Each file gets its own tokenizer and engine, so
+ * files never share state, and results are handed back in the same order the files came in no matter which one
+ * finishes first. That keeps output and error reporting the same for any number of jobs.
+ * Created by michaelmeyer on 3/12/17.
+ */
+public class ParallelCompiler {
+
+    // how many files per job may be waiting to be handed to the sink, which bounds how many are in memory at once
+    private static final int FILES_AHEAD_PER_JOB = 2;
+
+    private final int jobs;
+    private BiConsumer<JackSource, Map.Entry<String, Document>> parseTreeSink;
+    private PeepholeOptimizer optimizer;
+    private boolean stringPool = false;
+    private CompileStats stats;
+    private ExecutorService sharedPool;
+
+    /**
+     * Instantiates a new parallel compiler.
+     *
+     * @param jobs the number of files to compile at the same time
+     */
+    public ParallelCompiler(int jobs) {
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Asks for XML parse trees to be built as well as vm code. Each class's tree is passed to the sink, on the calling
+     * thread, just before its vm code is passed along. Without this no parse tree is built at all.
+     *
+     * @param parseTreeSink receives the source each tree was built from, null for files compiled from a map of lines,
+     *                      along with the class name to parse tree mapping, or null to stop building them
+     */
+    public void setParseTreeSink(BiConsumer<JackSource, Map.Entry<String, Document>> parseTreeSink) {
+        this.parseTreeSink = parseTreeSink;
+    }
+
+    /**
+     * Asks for each class's vm code to be optimized before it's passed along: constants are folded as it's compiled
+     * and then it's run through the optimizer. The optimizer is run on the worker threads, so it has to be safe to
+     * share between them.
+     *
+     * @param optimizer the optimizer to use, or null to leave the code as the engine wrote it
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Asks for each distinct string literal in a class to be built only the first time it's used, and the same
+     * String object handed back every time after.
+     *
+     * @param stringPool true to pool string literals
+     */
+    public void setStringPool(boolean stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Asks for the phases of each file to be timed and counted. Each file's stats are added on the calling thread,
+     * just before its vm code is passed along. Phases are timed either way when a Flight Recorder recording wants
+     * their events.
+     *
+     * @param stats the stats to add to, or null to stop collecting them
+     */
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Keeps the worker threads between calls rather than starting new ones for each, so that many builds in one run
+     * share the same warmed up workers. They're stopped by shutdown.
+     */
+    public void keepWorkers() {
+        if (jobs > 1 && sharedPool == null) {
+            sharedPool = newPool();
+        }
+    }
+
+    /**
+     * Stops the worker threads kept by keepWorkers.
+     */
+    public void shutdown() {
+        if (sharedPool != null) {
+            sharedPool.shutdownNow();
+            sharedPool = null;
+        }
+    }
+
+    /**
+     * Compiles every file and passes each result to the sink, in input order, on the calling thread. If a file fails
+     * to compile the results before it are still passed along, then its exception is rethrown and nothing after it is.
+     *
+     * @param cleanFilesAndLines the jack filenames mapped to their lines of source, in the order to emit them
+     * @param sink receives each class name to vm code mapping
+     */
+    public void compileAll(Map<String, List<String>> cleanFilesAndLines, Consumer<Map.Entry<String, VMCode>> sink) {
+        BiConsumer<Map.Entry<String, List<String>>, Map.Entry<String, Document>> treeSink =
+                parseTreeSink == null ? null : (file, classToDoc) -> parseTreeSink.accept(null, classToDoc);
+        compileInOrder(cleanFilesAndLines.entrySet().iterator(), Map.Entry::getKey, (file, fileStats) -> {
+            if (fileStats == null) {
+                return new JackTokenizer().tokenizeToStream(file).getValue();
+            }
+            fileStats.begin(CompileStats.Phase.TOKENIZE);
+            TokenStream tokens = new JackTokenizer().tokenizeToStream(file).getValue();
+            fileStats.countTokens(tokens);
+            fileStats.end(CompileStats.Phase.TOKENIZE);
+            return tokens;
+        }, treeSink, (file, result) -> sink.accept(result));
+    }
+
+    /**
+     * Reads and compiles every source the iterator gives, passing each result to the sink in iterator order on the
+     * calling thread. Sources are pulled from the iterator only a few at a time per job, so the number of files held
+     * in memory doesn't grow with the number of files. Failures are handled the same way as for a map of files.
+     *
+     * @param sources the sources to compile, in the order to emit them
+     * @param sink receives each class name to vm code mapping
+     */
+    public void compileAll(Iterator<JackSource> sources, Consumer<Map.Entry<String, VMCode>> sink) {
+        compileSources(sources, (source, result) -> sink.accept(result));
+    }
+
+    /**
+     * Same as compileAll for sources, but the sink also gets the source each result was compiled from.
+     *
+     * @param sources the sources to compile, in the order to emit them
+     * @param sink receives each source along with its class name to vm code mapping
+     */
+    public void compileSources(Iterator<JackSource> sources, BiConsumer<JackSource, Map.Entry<String, VMCode>> sink) {
+        compileInOrder(sources, JackSource::getRelativeName, ParallelCompiler::readAndTokenize, parseTreeSink, sink);
+    }
+
+    /**
+     * Tokenizes and compiles a single file.
+     *
+     * @param jackFileToLines the jack filename mapped to lines of source code
+     * @return the class name mapped to its vm code
+     */
+    public static Map.Entry<String, VMCode> compileFile(Map.Entry<String, List<String>> jackFileToLines) {
+        JackTokenizer tokenizer = new JackTokenizer();
+        CompilationEngine engine = new CompilationEngine(false);
+        return engine.compileStream(tokenizer.tokenizeToStream(jackFileToLines));
+    }
+
+    /**
+     * Reads, tokenizes and compiles a single source file.
+     *
+     * @param source the source to compile
+     * @return the class name mapped to its vm code
+     */
+    public static Map.Entry<String, VMCode> compileSource(JackSource source) {
+        JackTokenizer tokenizer = new JackTokenizer();
+        CompilationEngine engine = new CompilationEngine(false);
+        return engine.compileStream(tokenizer.tokenizeToStream(source.getFileName(), source.read()));
+    }
+
+    /**
+     * Reads, tokenizes and compiles a single source file on the calling thread, with the same settings as the files
+     * this compiler compiles in bulk. If parse trees are being built, the file's tree is passed to the parse tree sink
+     * before this returns.
+     *
+     * @param source the source to compile
+     * @return the class name mapped to its vm code
+     */
+    public Map.Entry<String, VMCode> compile(JackSource source) {
+        FileStats fileStats = FileStats.isWanted(false) ? new FileStats(source.getFileName(), false) : null;
+        CompilationEngine engine = newEngine(parseTreeSink != null);
+        Map.Entry<String, VMCode> classToVMCode =
+                compileTokens(source.getFileName(), readAndTokenize(source, fileStats), engine, fileStats);
+        if (parseTreeSink != null) {
+            parseTreeSink.accept(source, new AbstractMap.SimpleEntry<>(classToVMCode.getKey(), engine.getParseTree()));
+        }
+        return classToVMCode;
+    }
+
+    /*
+        compiles the inputs on the pool, keeping only a bounded window of them in flight, and drains results in order
+     */
+    private <T> void compileInOrder(Iterator<T> inputs, Function<T, String> fileName,
+                                    BiFunction<T, FileStats, TokenStream> tokenize,
+                                    BiConsumer<T, Map.Entry<String, Document>> treeSink,
+                                    BiConsumer<T, Map.Entry<String, VMCode>> sink) {
+        boolean buildParseTree = treeSink != null;
+        boolean collectStats = stats != null;
+        Function<T, Compiled> compileOne = input -> {
+            String name = fileName.apply(input);
+            FileStats fileStats = FileStats.isWanted(collectStats) ? new FileStats(name, collectStats) : null;
+            TokenStream tokens = tokenize.apply(input, fileStats);
+            CompilationEngine engine = newEngine(buildParseTree);
+            Map.Entry<String, VMCode> classToVMCode = compileTokens(name, tokens, engine, fileStats);
+            return new Compiled(classToVMCode, engine.getParseTree(), fileStats);
+        };
+        BiConsumer<T, Compiled> drain = (input, compiled) -> {
+            if (collectStats) {
+                stats.add(compiled.fileStats);
+            }
+            if (buildParseTree) {
+                treeSink.accept(input, new AbstractMap.SimpleEntry<>(compiled.classToVMCode.getKey(), compiled.parseTree));
+            }
+            sink.accept(input, compiled.classToVMCode);
+        };
+        if (jobs == 1) {
+            inputs.forEachRemaining(input -> drain.accept(input, compileOne.apply(input)));
+            return;
+        }
+        ExecutorService pool = sharedPool != null ? sharedPool : newPool();
+        Deque<Future<Compiled>> pending = new ArrayDeque<>();
+        try {
+            Deque<T> pendingInputs = new ArrayDeque<>();
+            while (inputs.hasNext()) {
+                T input = inputs.next();
+                pendingInputs.addLast(input);
+                pending.addLast(pool.submit(() -> compileOne.apply(input)));
+                if (pending.size() >= jobs * FILES_AHEAD_PER_JOB) {
+                    drain.accept(pendingInputs.removeFirst(), awaitResult(pending.removeFirst()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                drain.accept(pendingInputs.removeFirst(), awaitResult(pending.removeFirst()));
+            }
+        } finally {
+            // after a failure the files still in flight aren't wanted, and a shared pool has other builds to run
+            pending.forEach(result -> result.cancel(true));
+            if (pool != sharedPool) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private ExecutorService newPool() {
+        return Executors.newFixedThreadPool(jobs, runnable -> {
+            Thread thread = new Thread(runnable, "jack-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+        reads a source and tokenizes it, timing both unless there are no stats to keep
+     */
+    private static TokenStream readAndTokenize(JackSource source, FileStats fileStats) {
+        if (fileStats == null) {
+            return new JackTokenizer().tokenizeToStream(source.getFileName(), source.read()).getValue();
+        }
+        fileStats.begin(CompileStats.Phase.READ);
+        CharBuffer text = source.read();
+        fileStats.setBytes(source.getSize());
+        fileStats.end(CompileStats.Phase.READ);
+        fileStats.begin(CompileStats.Phase.TOKENIZE);
+        TokenStream tokens = new JackTokenizer().tokenizeToStream(source.getFileName(), text).getValue();
+        fileStats.countTokens(tokens);
+        fileStats.end(CompileStats.Phase.TOKENIZE);
+        return tokens;
+    }
+
+    /*
+        compiles and optimizes one file's tokens, timing both as the compile phase unless there are no stats to keep
+     */
+    private Map.Entry<String, VMCode> compileTokens(String fileName, TokenStream tokens, CompilationEngine engine,
+                                                    FileStats fileStats) {
+        if (fileStats == null) {
+            return optimize(engine.compileStream(new AbstractMap.SimpleEntry<>(fileName, tokens)));
+        }
+        fileStats.begin(CompileStats.Phase.COMPILE);
+        Map.Entry<String, VMCode> classToVMCode =
+                optimize(engine.compileStream(new AbstractMap.SimpleEntry<>(fileName, tokens)));
+        fileStats.countCompiled(classToVMCode);
+        fileStats.end(CompileStats.Phase.COMPILE);
+        return classToVMCode;
+    }
+
+    /*
+        makes an engine for one file with this compiler's settings
+     */
+    private CompilationEngine newEngine(boolean buildParseTree) {
+        CompilationEngine engine = new CompilationEngine(buildParseTree);
+        engine.setFoldConstants(optimizer != null);
+        engine.setStringPool(stringPool);
+        return engine;
+    }
+
+    private Map.Entry<String, VMCode> optimize(Map.Entry<String, VMCode> classToVMCode) {
+        if (optimizer == null) {
+            return classToVMCode;
+        }
+        return new AbstractMap.SimpleEntry<>(classToVMCode.getKey(), optimizer.optimize(classToVMCode.getValue()));
+    }
+
+    /*
+        waits on a compile and rethrows whatever the worker threw so failures look the same as a sequential run
+     */
+    private static <T> T awaitResult(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting on compilation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /*
+        what a worker hands back for one file
+     */
+    private static class Compiled {
+        private final Map.Entry<String, VMCode> classToVMCode;
+        private final Document parseTree;
+        // null when no stats are kept
+        private final FileStats fileStats;
+
+        private Compiled(Map.Entry<String, VMCode> classToVMCode, Document parseTree, FileStats fileStats) {
+            this.classToVMCode = classToVMCode;
+            this.parseTree = parseTree;
+            this.fileStats = fileStats;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.meyermt.jack;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rewrites the vm code of a class into shorter code that does the same thing, looking only at a few instructions at
+ * a time. The compilation engine writes the same fixed sequences for every if, while and boolean, and most of them
+ * can be tightened once it's known what comes next:
+ * - if-goto T, goto F, label T becomes if-goto F on the negated condition, when the condition is known to be a
+ *   boolean. A condition that's already negated just loses its not
+ * - not, not cancels out
+ * - jumps on a constant become a goto or go away, so while (true) loops don't test anything
+ * - a push straight back into the slot it came from goes away
+ * - jumps to a label that only jumps on are pointed at the final target, a goto to the label right after it goes
+ *   away, code after a goto or return that no label leads to goes away, and so do labels nothing jumps to
+ * Passes are repeated until nothing more changes, since one rewrite often opens up another.
+ * Safe to share between threads, the only state kept is the running instruction counts for the report.
+ * Created by michaelmeyer on 3/21/17.
+ */
+public class PeepholeOptimizer {
+
+    private final AtomicLong instructionsBefore = new AtomicLong();
+    private final AtomicLong instructionsAfter = new AtomicLong();
+
+    /**
+     * Instantiates a new peephole optimizer.
+     */
+    public PeepholeOptimizer() {
+    }
+
+    /**
+     * Optimizes the vm code of one class.
+     *
+     * @param code the code to optimize, which isn't changed
+     * @return new, optimized code
+     */
+    public VMCode optimize(VMCode code) {
+        Pass pass = new Pass(code);
+        while (pass.run()) {
+            pass = new Pass(pass.out);
+        }
+        instructionsBefore.addAndGet(code.size());
+        instructionsAfter.addAndGet(pass.out.size());
+        return pass.out;
+    }
+
+    /**
+     * Prints how many vm instructions were saved over everything optimized so far.
+     */
+    public void printReport() {
+        long before = instructionsBefore.get();
+        long after = instructionsAfter.get();
+        double percent = before == 0 ? 0 : (before - after) * 100.0 / before;
+        System.out.println(String.format("Optimized %d vm instructions down to %d, %d fewer (%.1f%%)",
+                before, after, before - after, percent));
+    }
+
+    /*
+        one pass over the code. Rewrites are made against the code already written out, so a rewrite can match what
+        the last one left behind
+     */
+    private static class Pass {
+        private final VMCode in;
+        private final VMCode out = new VMCode();
+        private final Map<String, Integer> labelRefs = new HashMap<>();
+        private final Map<String, Integer> labelPositions = new HashMap<>();
+        private boolean changed = false;
+
+        private Pass(VMCode in) {
+            this.in = in;
+            for (int i = 0; i < in.size(); i++) {
+                VMCode.Op op = in.op(i);
+                if (op == VMCode.Op.GOTO || op == VMCode.Op.IF_GOTO) {
+                    labelRefs.merge(in.name(i), 1, Integer::sum);
+                } else if (op == VMCode.Op.LABEL) {
+                    labelPositions.put(in.name(i), i);
+                }
+            }
+        }
+
+        /*
+            writes the optimized code to out and returns whether anything was rewritten
+         */
+        private boolean run() {
+            int i = 0;
+            while (i < in.size()) {
+                VMCode.Op op = in.op(i);
+                int last = out.size() - 1;
+                if (op == VMCode.Op.LABEL) {
+                    if (labelRefs.containsKey(in.name(i))) {
+                        out.copy(in, i);
+                    } else {
+                        changed = true;
+                    }
+                    i++;
+                } else if (op == VMCode.Op.GOTO) {
+                    String target = finalTarget(in.name(i));
+                    if (labelFollows(i, target)) {
+                        changed = true;
+                    } else {
+                        out.gotoLabel(target);
+                        changed |= !target.equals(in.name(i));
+                    }
+                    i = skipUnreachable(i + 1);
+                } else if (op == VMCode.Op.RETURN) {
+                    out.copy(in, i);
+                    i = skipUnreachable(i + 1);
+                } else if (op == VMCode.Op.IF_GOTO) {
+                    i = rewriteIfGoto(i);
+                } else if (op == VMCode.Op.NOT && last >= 0 && out.op(last) == VMCode.Op.NOT) {
+                    // not, not
+                    out.truncate(last);
+                    changed = true;
+                    i++;
+                } else if (op == VMCode.Op.POP && last >= 0 && out.isPush(last, in.segment(i), in.segmentIndex(i))) {
+                    // push x, pop x
+                    out.truncate(last);
+                    changed = true;
+                    i++;
+                } else {
+                    out.copy(in, i);
+                    i++;
+                }
+            }
+            return changed;
+        }
+
+        /*
+            writes out the if-goto at i, and the goto and label after it if they can be folded in, and returns the
+            index of the next instruction to look at
+         */
+        private int rewriteIfGoto(int i) {
+            String target = finalTarget(in.name(i));
+            int last = out.size() - 1;
+            if (last >= 0 && out.isPush(last, VMCode.Segment.CONSTANT, 0)) {
+                // false never jumps
+                out.truncate(last);
+                changed = true;
+                return i + 1;
+            }
+            if (last >= 1 && out.op(last) == VMCode.Op.NOT && out.isPush(last - 1, VMCode.Segment.CONSTANT, 0)) {
+                // true always jumps
+                out.truncate(last - 1);
+                out.gotoLabel(target);
+                changed = true;
+                return i + 1;
+            }
+            // if-goto T, goto F, label T jumps to F when the condition is false. Negating with not only works for the
+            // booleans true and false, any other non-zero value is still true after a not
+            if (i + 2 < in.size() && in.op(i + 1) == VMCode.Op.GOTO && in.op(i + 2) == VMCode.Op.LABEL
+                    && in.name(i + 2).equals(in.name(i)) && last >= 0 && isBoolean(out, last)) {
+                if (out.op(last) == VMCode.Op.NOT) {
+                    out.truncate(last);
+                } else {
+                    out.arithmetic(VMCode.Op.NOT);
+                }
+                out.ifGoto(finalTarget(in.name(i + 1)));
+                changed = true;
+                // keep the label if something else jumps to it too
+                return labelRefs.get(in.name(i)) == 1 ? i + 3 : i + 2;
+            }
+            changed |= !target.equals(in.name(i));
+            out.ifGoto(target);
+            return i + 1;
+        }
+
+        /*
+            follows a label through any gotos it leads straight to, stopping if the chain loops back on itself
+         */
+        private String finalTarget(String label) {
+            Set<String> seen = new HashSet<>();
+            String target = label;
+            while (seen.add(target)) {
+                Integer position = labelPositions.get(target);
+                if (position == null) {
+                    break;
+                }
+                int next = position + 1;
+                while (next < in.size() && in.op(next) == VMCode.Op.LABEL) {
+                    next++;
+                }
+                if (next >= in.size() || in.op(next) != VMCode.Op.GOTO) {
+                    break;
+                }
+                target = in.name(next);
+            }
+            return target;
+        }
+
+        /*
+            checks if the label is among those straight after index, so jumping to it is the same as carrying on
+         */
+        private boolean labelFollows(int index, String label) {
+            for (int next = index + 1; next < in.size() && in.op(next) == VMCode.Op.LABEL; next++) {
+                if (in.name(next).equals(label)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+            skips code that can't be reached because nothing jumps to it and the code before never falls through
+         */
+        private int skipUnreachable(int index) {
+            int reachable = index;
+            while (reachable < in.size() && in.op(reachable) != VMCode.Op.LABEL
+                    && in.op(reachable) != VMCode.Op.FUNCTION) {
+                reachable++;
+            }
+            changed |= reachable > index;
+            return reachable;
+        }
+    }
+
+    /*
+        checks if the value the instruction at index leaves on the stack can only be true (-1) or false (0)
+     */
+    private static boolean isBoolean(VMCode code, int index) {
+        VMCode.Op op = code.op(index);
+        if (op == VMCode.Op.EQ || op == VMCode.Op.GT || op == VMCode.Op.LT) {
+            return true;
+        } else if (op == VMCode.Op.NOT) {
+            // the operand was pushed by the instruction just before, as long as that isn't a label something jumps to
+            return index > 0 && isBoolean(code, index - 1);
+        }
+        return code.isPush(index, VMCode.Segment.CONSTANT, 0);
+    }
+}
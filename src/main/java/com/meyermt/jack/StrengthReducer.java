@@ -0,0 +1,152 @@
+package com.meyermt.jack;
+
+/**
+ * Replaces calls to Math.multiply by a constant with adds, when that's cheaper. The OS multiplies with a loop over all
+ * 16 bits, so even a handful of vm instructions beats the call, but every instruction also costs code space, so a cost
+ * model estimating the Hack instructions run decides, and constants that would need a long expansion keep the call.
+ * Multiplying is done by doubling, the same way as shifting left: x * 10 is ((x + x) * 2 + x) * 2. The value being
+ * multiplied is kept in temp 1 and the running total doubled through temp 2, unless it's a plain push that can just
+ * be done again. The vm has no shift right, so division only gets x / -1 turned into a negation, division by other
+ * powers of two still calls Math.divide to keep its rounding toward zero.
+ * Created by michaelmeyer on 3/22/17.
+ */
+public class StrengthReducer {
+
+    // estimated Hack instructions run for each kind of vm instruction, and for a call to Math.multiply including the
+    // 16 trips around its loop
+    private static final int PUSH_COST = 8;
+    private static final int POP_COST = 8;
+    private static final int ARITHMETIC_COST = 5;
+    private static final int MULTIPLY_CALL_COST = PUSH_COST + 50 + 16 * 90;
+    // the most vm instructions a multiply may grow into, however much faster it is
+    private static final int MAX_EXPANSION = 20;
+
+    private static final int VALUE_SLOT = 1;
+    private static final int TOTAL_SLOT = 2;
+
+    private StrengthReducer() {
+    }
+
+    /**
+     * Rewrites a multiply or divide whose operands have just been written, when one of them is a constant and the
+     * rewrite is cheaper than the call.
+     *
+     * @param code the code being compiled
+     * @param op the jack operator
+     * @param leftStart the index the left operand's code starts at
+     * @param rightStart the index the right operand's code starts at, which runs to the end of the code
+     * @return true if the operation was rewritten, false if the caller still has to write the operator
+     */
+    public static boolean reduce(VMCode code, String op, int leftStart, int rightStart) {
+        Integer right = ConstantFolder.constantAt(code, rightStart, code.size());
+        if (op.equals("/")) {
+            if (right != null && right == -1) {
+                code.truncate(rightStart);
+                code.arithmetic(VMCode.Op.NEG);
+                return true;
+            }
+            return false;
+        } else if (!op.equals("*")) {
+            return false;
+        }
+        if (right != null) {
+            VMCode expansion = expandMultiply(code, leftStart, rightStart, right);
+            if (expansion != null) {
+                code.truncate(rightStart);
+                append(code, expansion);
+                return true;
+            }
+        }
+        Integer left = ConstantFolder.constantAt(code, leftStart, rightStart);
+        if (left != null) {
+            // multiplying is commutative and a constant has nothing to do, so it can just as well come second
+            VMCode expansion = expandMultiply(code, rightStart, code.size(), left);
+            if (expansion != null) {
+                code.remove(leftStart, rightStart);
+                append(code, expansion);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        works out the code for value * constant to follow the value's code, which runs from valueStart to valueEnd,
+        or gives null if the cost model says the call is better
+     */
+    private static VMCode expandMultiply(VMCode code, int valueStart, int valueEnd, int constant) {
+        if (constant == Short.MIN_VALUE) {
+            return null;
+        }
+        if (constant == 0) {
+            // the value's code still runs, since it can call something, but all that's left of it is zero
+            VMCode expansion = new VMCode();
+            expansion.pop(VMCode.Segment.TEMP, VALUE_SLOT);
+            expansion.push(VMCode.Segment.CONSTANT, 0);
+            return expansion;
+        }
+        // a value that's just pushed can be pushed again whenever it's needed, anything else is saved in temp
+        boolean plainPush = valueEnd - valueStart == 1 && code.op(valueStart) == VMCode.Op.PUSH;
+        VMCode expansion = new VMCode();
+        if (!plainPush) {
+            expansion.pop(VMCode.Segment.TEMP, VALUE_SLOT);
+            expansion.push(VMCode.Segment.TEMP, VALUE_SLOT);
+        }
+        int magnitude = Math.abs(constant);
+        boolean totalIsValue = true;
+        for (int bit = 30 - Integer.numberOfLeadingZeros(magnitude); bit >= 0; bit--) {
+            if (totalIsValue) {
+                pushValue(expansion, code, valueStart, plainPush);
+            } else {
+                expansion.pop(VMCode.Segment.TEMP, TOTAL_SLOT);
+                expansion.push(VMCode.Segment.TEMP, TOTAL_SLOT);
+                expansion.push(VMCode.Segment.TEMP, TOTAL_SLOT);
+            }
+            expansion.arithmetic(VMCode.Op.ADD);
+            totalIsValue = false;
+            if ((magnitude & (1 << bit)) != 0) {
+                pushValue(expansion, code, valueStart, plainPush);
+                expansion.arithmetic(VMCode.Op.ADD);
+            }
+        }
+        if (constant < 0) {
+            expansion.arithmetic(VMCode.Op.NEG);
+        }
+        if (expansion.size() > MAX_EXPANSION || cost(expansion) >= MULTIPLY_CALL_COST) {
+            return null;
+        }
+        return expansion;
+    }
+
+    private static void append(VMCode code, VMCode expansion) {
+        for (int i = 0; i < expansion.size(); i++) {
+            code.copy(expansion, i);
+        }
+    }
+
+    private static void pushValue(VMCode expansion, VMCode code, int valueStart, boolean plainPush) {
+        if (plainPush) {
+            expansion.copy(code, valueStart);
+        } else {
+            expansion.push(VMCode.Segment.TEMP, VALUE_SLOT);
+        }
+    }
+
+    /*
+        estimates how many Hack instructions the code runs
+     */
+    private static int cost(VMCode code) {
+        int cost = 0;
+        for (int i = 0; i < code.size(); i++) {
+            VMCode.Op op = code.op(i);
+            if (op == VMCode.Op.PUSH) {
+                cost += PUSH_COST;
+            } else if (op == VMCode.Op.POP) {
+                cost += POP_COST;
+            } else {
+                cost += ARITHMETIC_COST;
+            }
+        }
+        return cost;
+    }
+}
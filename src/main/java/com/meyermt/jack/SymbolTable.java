@@ -1,111 +1,279 @@
 package com.meyermt.jack;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
+ * Holds the variables of one scope, a class or a subroutine, with a link to the enclosing scope. Entries live in an
+ * open addressing hash table keyed on name, so finding a variable costs the same however many a class or subroutine
+ * declares, and a single lookup hands back everything known about it without allocating.
  * Created by michaelmeyer on 3/7/17.
  */
 public class SymbolTable {
 
-    public static final String NAME = "name", TYPE = "type", KIND = "kind", INDEX = "index";
-    private List<Map<String, String>> values = new ArrayList<>();
-    private int argCounter;
-    private int varCounter;
-    private int staticCounter;
-    private int fieldCounter;
+    /**
+     * The kinds of variable, each with the vm memory segment it lives in.
+     */
+    public enum Kind {
+        STATIC(VMCode.Segment.STATIC), FIELD(VMCode.Segment.THIS), ARGUMENT(VMCode.Segment.ARGUMENT),
+        LOCAL(VMCode.Segment.LOCAL);
 
+        private final VMCode.Segment segment;
+
+        Kind(VMCode.Segment segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Gets the vm segment variables of this kind live in.
+         *
+         * @return the segment name, e.g. "this" for fields
+         */
+        public String getSegment() {
+            return segment.getText();
+        }
+
+        /**
+         * Gets the vm segment variables of this kind live in.
+         *
+         * @return the segment
+         */
+        public VMCode.Segment getVMSegment() {
+            return segment;
+        }
+
+        /**
+         * Gets the kind for a declaration keyword or segment name.
+         *
+         * @param kind "static", "field", "argument", "local" or "var"
+         * @return the kind
+         */
+        public static Kind of(String kind) {
+            switch (kind) {
+                case "static":
+                    return STATIC;
+                case "field":
+                case "this":
+                    return FIELD;
+                case "argument":
+                    return ARGUMENT;
+                default:
+                    return LOCAL;
+            }
+        }
+    }
+
+    /**
+     * Everything known about one variable.
+     */
+    public static final class Entry {
+        private final String name;
+        private final String type;
+        private final Kind kind;
+        private final int index;
+
+        private Entry(String name, String type, Kind kind, int index) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the vm segment the variable lives in.
+         *
+         * @return the segment name
+         */
+        public String getSegment() {
+            return kind.getSegment();
+        }
+
+        /**
+         * Gets the vm segment the variable lives in.
+         *
+         * @return the segment
+         */
+        public VMCode.Segment getVMSegment() {
+            return kind.getVMSegment();
+        }
+    }
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final SymbolTable parent;
+    private Entry[] slots = new Entry[INITIAL_SLOTS];
+    private int size;
+    private final int[] kindCounts = new int[Kind.values().length];
+
+    /**
+     * Instantiates a new outermost symbol table, i.e. for a class.
+     */
     public SymbolTable() {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new symbol table nested in another one, i.e. a subroutine in its class. Names not found here are
+     * looked up in the parent.
+     *
+     * @param parent the enclosing scope, or null
+     */
+    public SymbolTable(SymbolTable parent) {
+        this.parent = parent;
     }
 
+    /**
+     * Adds a variable, giving it the next index for its kind. If the name is already in this scope the first one
+     * declared is the one found, as before.
+     *
+     * @param name the variable name
+     * @param type the variable type, e.g. "int" or a class name
+     * @param kind "static", "field", "argument" or "local"
+     */
     public void addNewItem(String name, String type, String kind) {
-        Map<String, String> symbolEntry = new HashMap<>();
-        symbolEntry.put(NAME, name);
-        symbolEntry.put(TYPE, type);
-        if (kind.equals("field")) {
-            symbolEntry.put(KIND, "this");
-        } else {
-            symbolEntry.put(KIND, kind);
+        add(name, type, Kind.of(kind));
+    }
+
+    /**
+     * Adds a variable, giving it the next index for its kind.
+     *
+     * @param name the variable name
+     * @param type the variable type, e.g. "int" or a class name
+     * @param kind the variable kind
+     * @return the new entry
+     */
+    public Entry add(String name, String type, Kind kind) {
+        Entry entry = new Entry(name, type, kind, kindCounts[kind.ordinal()]++);
+        if ((size + 1) * 2 > slots.length) {
+            grow();
+        }
+        int slot = findSlot(slots, name);
+        if (slots[slot] == null) {
+            slots[slot] = entry;
+            size++;
+        }
+        return entry;
+    }
+
+    /**
+     * Finds a variable in this scope or any enclosing one.
+     *
+     * @param name the variable name
+     * @return the entry, or null if there's no such variable
+     */
+    public Entry lookup(String name) {
+        for (SymbolTable table = this; table != null; table = table.parent) {
+            Entry entry = table.slots[findSlot(table.slots, name)];
+            if (entry != null) {
+                return entry;
+            }
         }
-        symbolEntry.put(INDEX, getTypeCountAndIncrement(kind));
-        values.add(symbolEntry);
+        return null;
+    }
+
+    /**
+     * Finds a variable in this scope or any enclosing one, failing if it isn't declared.
+     *
+     * @param name the variable name
+     * @return the entry
+     * @throws RuntimeException if there's no such variable
+     */
+    public Entry require(String name) {
+        Entry entry = lookup(name);
+        if (entry == null) {
+            throw new RuntimeException("Unable to retrieve kind for: " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * Gets how many variables of a kind this scope declares.
+     *
+     * @param kind the variable kind
+     * @return the count
+     */
+    public int count(Kind kind) {
+        return kindCounts[kind.ordinal()];
     }
 
     public void printAll() {
-        values.stream().forEach(map -> {
-            System.out.println("name: " + map.get(NAME) + " type: " + map.get(TYPE)
-            + " kind: " + map.get(KIND) + " index: " + map.get(INDEX));
-        });
+        Arrays.stream(slots)
+                .filter(entry -> entry != null)
+                .sorted((a, b) -> a.kind != b.kind ? a.kind.compareTo(b.kind) : Integer.compare(a.index, b.index))
+                .forEach(entry -> System.out.println("name: " + entry.name + " type: " + entry.type
+                        + " kind: " + entry.getSegment() + " index: " + entry.index));
     }
 
     public boolean hasItem(String item, SymbolTable higherTable) {
-        Optional<Boolean> inSub = values.stream()
-            .filter(entry -> entry.get("name").equals(item))
-            .map(it -> true)
-            .findFirst();
-
-        if (higherTable != null && !inSub.isPresent()) {
-            return higherTable.hasItem(item, null);
-        } else {
-            return inSub.orElse(false);
-        }
+        return find(item, higherTable) != null;
     }
 
     public String getKind(String varName, SymbolTable higherTable) {
-        Optional<String> kind = values.stream()
-                .filter(entry -> entry.get("name").equals(varName))
-                .map(entry -> entry.get("kind"))
-                .findFirst();
+        return require(varName, higherTable).getSegment();
+    }
 
-        if (higherTable != null && !kind.isPresent()) {
-            return higherTable.getKind(varName, null);
-        } else {
-            return kind.orElseThrow(() -> new RuntimeException("Unable to retrieve kind for: " + varName));
+    public String getIndex(String varName, SymbolTable higherTable) {
+        return Integer.toString(require(varName, higherTable).index);
+    }
+
+    public String getType(String varName, SymbolTable higherTable) {
+        return require(varName, higherTable).type;
+    }
+
+    /*
+        looks in this table then the given higher one, for callers that pass the enclosing scope explicitly
+     */
+    private Entry find(String name, SymbolTable higherTable) {
+        Entry entry = lookup(name);
+        if (entry == null && higherTable != null) {
+            entry = higherTable.lookup(name);
         }
+        return entry;
     }
 
-    public String getIndex(String varName, SymbolTable higherTable) {
-         Optional<String> index = values.stream()
-                .filter(entry -> entry.get("name").equals(varName))
-                .map(entry -> entry.get("index"))
-                .findFirst();
+    private Entry require(String name, SymbolTable higherTable) {
+        Entry entry = find(name, higherTable);
+        if (entry == null) {
+            throw new RuntimeException("Unable to retrieve kind for: " + name);
+        }
+        return entry;
+    }
 
-        if (higherTable != null && !index.isPresent()) {
-            return higherTable.getIndex(varName, null);
-        } else {
-            return index.orElseThrow(() -> new RuntimeException("Unable to retrieve index for: " + varName));
+    /*
+        linear probe for the slot holding the name, or the empty slot it would go in
+     */
+    private static int findSlot(Entry[] slots, String name) {
+        int mask = slots.length - 1;
+        int hash = name.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != null && !slots[slot].name.equals(name)) {
+            slot = (slot + 1) & mask;
         }
+        return slot;
     }
 
-    public String getType(String varName, SymbolTable higherTable) {
-        Optional<String> index = values.stream()
-                .filter(entry -> entry.get("name").equals(varName))
-                .map(entry -> entry.get("type"))
-                .findFirst();
-
-        if (higherTable != null && !index.isPresent()) {
-            return higherTable.getType(varName, null);
-        } else {
-            return index.orElseThrow(() -> new RuntimeException("Unable to retrieve type for: " + varName));
-        }
-    }
-
-    private String getTypeCountAndIncrement(String kind) {
-        if (kind.equals("argument")) {
-            int current =  argCounter;
-            argCounter++;
-            return Integer.toString(current);
-        } else if (kind.equals("static")) {
-            int current =  staticCounter;
-            staticCounter++;
-            return Integer.toString(current);
-        } else if (kind.equals("field")) {
-            int current = fieldCounter;
-            fieldCounter++;
-            return Integer.toString(current);
-        } else {
-            int current = varCounter;
-            varCounter++;
-            return Integer.toString(current);
+    private void grow() {
+        Entry[] old = slots;
+        slots = new Entry[old.length * 2];
+        for (Entry entry : old) {
+            if (entry != null) {
+                slots[findSlot(slots, entry.name)] = entry;
+            }
         }
     }
 }
@@ -0,0 +1,372 @@
+package com.meyermt.jack;
+
+import java.util.Arrays;
+
+/**
+ * A compact, array-backed list of the tokens of one .jack file with a cursor for the compilation engine to walk it.
+ * Each token is a kind code plus the offset and length of its text in a shared source buffer, and the id of its value
+ * in an interned value table, so a token costs a few array slots instead of a DOM element and text node. Keywords and
+ * symbols are interned up front, which makes their values the same String instances as the tokenizer constants.
+ * Created by michaelmeyer on 3/13/17.
+ */
+public class TokenStream {
+
+    /**
+     * The token kind codes.
+     */
+    public static final byte KEYWORD = 0, SYMBOL = 1, INT_CONST = 2, STRING_CONST = 3, IDENTIFIER = 4;
+
+    private static final String[] KIND_NAMES = {"keyword", "symbol", "integerConstant", "stringConstant", "identifier"};
+    private static final int INITIAL_TOKENS = 64;
+    private static final int INITIAL_VALUES = 64;
+    // keywords are interned first, so their value ids are below this
+    private static final int KEYWORD_COUNT = JackTokenizer.keywords.size();
+
+    private char[] source;
+    private int sourceLength;
+
+    private byte[] kinds = new byte[INITIAL_TOKENS];
+    private int[] offsets = new int[INITIAL_TOKENS];
+    private int[] lengths = new int[INITIAL_TOKENS];
+    private int[] valueIds = new int[INITIAL_TOKENS];
+    private int size = 0;
+
+    private String[] values = new String[INITIAL_VALUES];
+    private int[] valueHashes = new int[INITIAL_VALUES];
+    private int valueCount = 0;
+    // open addressing table of value id + 1, 0 meaning empty
+    private int[] valueSlots = new int[INITIAL_VALUES * 2];
+
+    private int cursor = 0;
+
+    /**
+     * Instantiates a new token stream over a source buffer. Tokens refer to ranges of this buffer.
+     *
+     * @param source the buffer holding the text of every token
+     * @param sourceLength the number of chars of the buffer in use
+     */
+    public TokenStream(char[] source, int sourceLength) {
+        this.source = source;
+        this.sourceLength = sourceLength;
+        JackTokenizer.keywords.forEach(this::internConstant);
+        JackTokenizer.symbols.forEach(this::internConstant);
+    }
+
+    /**
+     * Adds a token whose text is the given range of the source buffer.
+     *
+     * @param kind the kind code of the token
+     * @param offset where the token text starts in the source buffer
+     * @param length how many chars the token text is
+     */
+    public void add(byte kind, int offset, int length) {
+        if (size == kinds.length) {
+            int newLength = size * 2;
+            kinds = Arrays.copyOf(kinds, newLength);
+            offsets = Arrays.copyOf(offsets, newLength);
+            lengths = Arrays.copyOf(lengths, newLength);
+            valueIds = Arrays.copyOf(valueIds, newLength);
+        }
+        kinds[size] = kind;
+        offsets[size] = offset;
+        lengths[size] = length;
+        valueIds[size] = intern(source, offset, length);
+        size++;
+    }
+
+    /**
+     * Adds a keyword or identifier token whose text is the given range of the source buffer. Which of the two it is
+     * comes from the interned value table.
+     *
+     * @param offset where the token text starts in the source buffer
+     * @param length how many chars the token text is
+     */
+    public void addWord(int offset, int length) {
+        add(IDENTIFIER, offset, length);
+        if (valueIds[size - 1] < KEYWORD_COUNT) {
+            kinds[size - 1] = KEYWORD;
+        }
+    }
+
+    /**
+     * Gets how many tokens are in the stream.
+     *
+     * @return the token count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the cursor position, which is the index of the next token to be consumed.
+     *
+     * @return the cursor position
+     */
+    public int position() {
+        return cursor;
+    }
+
+    /**
+     * Moves the cursor back to the first token.
+     */
+    public void rewind() {
+        cursor = 0;
+    }
+
+    /**
+     * Checks if there are tokens left after the cursor.
+     *
+     * @return true if the cursor isn't at the end
+     */
+    public boolean hasMore() {
+        return cursor < size;
+    }
+
+    /**
+     * Moves the cursor past the current token.
+     */
+    public void advance() {
+        checkIndex(cursor);
+        cursor++;
+    }
+
+    /**
+     * Gets the kind code of the token at the cursor.
+     *
+     * @return the kind code
+     */
+    public byte peekKind() {
+        return kindAt(cursor);
+    }
+
+    /**
+     * Gets the kind code of a token ahead of the cursor.
+     *
+     * @param ahead how many tokens past the cursor to look, 0 being the cursor itself
+     * @return the kind code
+     */
+    public byte peekKind(int ahead) {
+        return kindAt(cursor + ahead);
+    }
+
+    /**
+     * Gets the value of the token at the cursor.
+     *
+     * @return the interned token value
+     */
+    public String peekValue() {
+        return valueAt(cursor);
+    }
+
+    /**
+     * Gets the value of a token ahead of the cursor.
+     *
+     * @param ahead how many tokens past the cursor to look, 0 being the cursor itself
+     * @return the interned token value
+     */
+    public String peekValue(int ahead) {
+        return valueAt(cursor + ahead);
+    }
+
+    /**
+     * Checks if the token at the cursor has the given value.
+     *
+     * @param value the value to compare against
+     * @return true if they are the same
+     */
+    public boolean peekIs(String value) {
+        return cursor < size && values[valueIds[cursor]].equals(value);
+    }
+
+    /**
+     * Gets the kind code of the token at an index.
+     *
+     * @param index the token index
+     * @return the kind code
+     */
+    public byte kindAt(int index) {
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    /**
+     * Gets the value of the token at an index.
+     *
+     * @param index the token index
+     * @return the interned token value
+     */
+    public String valueAt(int index) {
+        checkIndex(index);
+        return values[valueIds[index]];
+    }
+
+    /**
+     * Gets the id of the token value at an index in the interned value table. Tokens with equal values share an id.
+     *
+     * @param index the token index
+     * @return the value id
+     */
+    public int valueIdAt(int index) {
+        checkIndex(index);
+        return valueIds[index];
+    }
+
+    /**
+     * Gets where the text of the token at an index starts in the source buffer.
+     *
+     * @param index the token index
+     * @return the source offset
+     */
+    public int offsetAt(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * Gets how long the text of the token at an index is in the source buffer.
+     *
+     * @param index the token index
+     * @return the token length
+     */
+    public int lengthAt(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * Gets the source line a token is on by counting newlines before it, so it's meant for error reporting only.
+     * Streams without real source text, such as ones rebuilt from a DOM, just count tokens from line 1.
+     *
+     * @param index the token index, clamped to the tokens there are
+     * @return the line number, starting from 1
+     */
+    public int lineAt(int index) {
+        if (size == 0) {
+            return 1;
+        }
+        int offset = offsets[Math.max(0, Math.min(index, size - 1))];
+        int line = 1;
+        for (int i = 0; i < offset && i < sourceLength; i++) {
+            if (source[i] == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Gets the source buffer tokens refer to.
+     *
+     * @return the source chars
+     */
+    public char[] getSource() {
+        return source;
+    }
+
+    /**
+     * Gets how many chars of the source buffer are in use.
+     *
+     * @return the source length
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * Gets the XML element name used for a kind code.
+     *
+     * @param kind the kind code
+     * @return the element name, e.g. "keyword"
+     */
+    public static String kindName(byte kind) {
+        return KIND_NAMES[kind];
+    }
+
+    /**
+     * Gets the kind code for an XML element name.
+     *
+     * @param name the element name, e.g. "keyword"
+     * @return the kind code
+     */
+    public static byte kindOf(String name) {
+        for (byte kind = 0; kind < KIND_NAMES.length; kind++) {
+            if (KIND_NAMES[kind].equals(name)) {
+                return kind;
+            }
+        }
+        throw new RuntimeException("Unknown token type: " + name);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new RuntimeException("Ran out of tokens at token " + index + " of " + size);
+        }
+    }
+
+    /*
+        Adds a constant value to the table, keeping the constant String itself as the interned value
+     */
+    private void internConstant(String value) {
+        int id = intern(value.toCharArray(), 0, value.length());
+        values[id] = value;
+    }
+
+    /*
+        Finds or adds the value for a range of chars. Only allocates a String the first time a value is seen.
+     */
+    private int intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = valueSlots.length - 1;
+        int slot = mix(hash) & mask;
+        while (valueSlots[slot] != 0) {
+            int id = valueSlots[slot] - 1;
+            if (valueHashes[id] == hash && sameChars(values[id], chars, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+            valueHashes = Arrays.copyOf(valueHashes, valueCount * 2);
+        }
+        int id = valueCount++;
+        values[id] = new String(chars, offset, length);
+        valueHashes[id] = hash;
+        valueSlots[slot] = id + 1;
+        if (valueCount * 2 > valueSlots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        valueSlots = new int[valueSlots.length * 2];
+        int mask = valueSlots.length - 1;
+        for (int id = 0; id < valueCount; id++) {
+            int slot = mix(valueHashes[id]) & mask;
+            while (valueSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            valueSlots[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameChars(String value, char[] chars, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
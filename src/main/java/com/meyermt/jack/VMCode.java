@@ -0,0 +1,396 @@
+package com.meyermt.jack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact vm code for one class. Each instruction is packed into a single long holding its opcode, segment and
+ * operands, and labels and function names are kept once each in a name table, so building the code doesn't create a
+ * String per instruction. Text is only produced when the code is written out.
+ * Created by michaelmeyer on 3/20/17.
+ */
+public class VMCode {
+
+    /**
+     * The vm commands.
+     */
+    public enum Op {
+        PUSH("push"), POP("pop"),
+        ADD("add"), SUB("sub"), NEG("neg"), EQ("eq"), GT("gt"), LT("lt"), AND("and"), OR("or"), NOT("not"),
+        LABEL("label"), GOTO("goto"), IF_GOTO("if-goto"),
+        FUNCTION("function"), CALL("call"), RETURN("return");
+
+        private final String text;
+
+        Op(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Gets the command as written in a .vm file.
+         *
+         * @return the command text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Checks if this is one of the arithmetic and logic commands, which take no operands.
+         *
+         * @return true for add through not
+         */
+        public boolean isArithmetic() {
+            return ordinal() >= ADD.ordinal() && ordinal() <= NOT.ordinal();
+        }
+
+        /**
+         * Checks if this command's operand is a label or function name.
+         *
+         * @return true for label, goto, if-goto, function and call
+         */
+        public boolean hasName() {
+            return ordinal() >= LABEL.ordinal() && ordinal() <= CALL.ordinal();
+        }
+    }
+
+    /**
+     * The vm memory segments.
+     */
+    public enum Segment {
+        CONSTANT("constant"), ARGUMENT("argument"), LOCAL("local"), STATIC("static"), THIS("this"), THAT("that"),
+        POINTER("pointer"), TEMP("temp");
+
+        private final String text;
+
+        Segment(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Gets the segment as written in a .vm file.
+         *
+         * @return the segment text
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final int INITIAL_SIZE = 256;
+
+    // bits 0-7 opcode, 8-15 segment, 16-31 count (locals or args), 32-63 index or name id
+    private long[] code = new long[INITIAL_SIZE];
+    private int size = 0;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    /**
+     * Instantiates new, empty vm code.
+     */
+    public VMCode() {
+    }
+
+    /**
+     * Adds a push.
+     *
+     * @param segment the segment to push from
+     * @param index the index in the segment
+     */
+    public void push(Segment segment, int index) {
+        add(pack(Op.PUSH, segment, 0, index));
+    }
+
+    /**
+     * Adds a pop.
+     *
+     * @param segment the segment to pop into
+     * @param index the index in the segment
+     */
+    public void pop(Segment segment, int index) {
+        add(pack(Op.POP, segment, 0, index));
+    }
+
+    /**
+     * Adds an arithmetic or logic command.
+     *
+     * @param op one of add through not
+     */
+    public void arithmetic(Op op) {
+        if (!op.isArithmetic()) {
+            throw new IllegalArgumentException(op + " isn't an arithmetic command");
+        }
+        add(pack(op, null, 0, 0));
+    }
+
+    /**
+     * Adds a label.
+     *
+     * @param label the label name
+     */
+    public void label(String label) {
+        add(pack(Op.LABEL, null, 0, nameId(label)));
+    }
+
+    /**
+     * Adds an unconditional jump.
+     *
+     * @param label the label to jump to
+     */
+    public void gotoLabel(String label) {
+        add(pack(Op.GOTO, null, 0, nameId(label)));
+    }
+
+    /**
+     * Adds a jump taken when the popped value isn't false.
+     *
+     * @param label the label to jump to
+     */
+    public void ifGoto(String label) {
+        add(pack(Op.IF_GOTO, null, 0, nameId(label)));
+    }
+
+    /**
+     * Adds a function declaration.
+     *
+     * @param name the full function name, e.g. Main.main
+     * @param localCount how many locals the function has
+     */
+    public void function(String name, int localCount) {
+        add(pack(Op.FUNCTION, null, localCount, nameId(name)));
+    }
+
+    /**
+     * Adds a call.
+     *
+     * @param name the full function name, e.g. Math.multiply
+     * @param argCount how many arguments were pushed
+     */
+    public void call(String name, int argCount) {
+        add(pack(Op.CALL, null, argCount, nameId(name)));
+    }
+
+    /**
+     * Adds a return.
+     */
+    public void returnOp() {
+        add(pack(Op.RETURN, null, 0, 0));
+    }
+
+    /**
+     * Adds an instruction copied from other vm code, which may have its own name table.
+     *
+     * @param other the code to copy from
+     * @param index the instruction to copy
+     */
+    public void copy(VMCode other, int index) {
+        long instruction = other.code[index];
+        if (other.op(index).hasName()) {
+            instruction = pack(other.op(index), null, other.count(index), nameId(other.name(index)));
+        }
+        add(instruction);
+    }
+
+    /**
+     * Drops instructions off the end, keeping the first ones.
+     *
+     * @param newSize how many instructions to keep
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Can't truncate " + size + " instructions to " + newSize);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Removes a run of instructions, moving the ones after it up.
+     *
+     * @param from the first instruction to remove
+     * @param to the instruction after the last one to remove
+     */
+    public void remove(int from, int to) {
+        if (from < 0 || from > to || to > size) {
+            throw new IndexOutOfBoundsException("Can't remove instructions " + from + " to " + to + " of " + size);
+        }
+        System.arraycopy(code, to, code, from, size - to);
+        size -= to - from;
+    }
+
+    /**
+     * Checks if an instruction is a push of a given segment slot.
+     *
+     * @param index the instruction index
+     * @param segment the segment
+     * @param segmentIndex the index in the segment
+     * @return true if it pushes exactly that slot
+     */
+    public boolean isPush(int index, Segment segment, int segmentIndex) {
+        return op(index) == Op.PUSH && segment(index) == segment && segmentIndex(index) == segmentIndex;
+    }
+
+    /**
+     * Gets how many instructions there are.
+     *
+     * @return the instruction count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the command of an instruction.
+     *
+     * @param index the instruction index
+     * @return the command
+     */
+    public Op op(int index) {
+        return OPS[(int) (instructionAt(index) & 0xFF)];
+    }
+
+    /**
+     * Gets the segment of a push or pop.
+     *
+     * @param index the instruction index
+     * @return the segment, or null for other commands
+     */
+    public Segment segment(int index) {
+        Op op = op(index);
+        return op == Op.PUSH || op == Op.POP ? SEGMENTS[(int) ((code[index] >>> 8) & 0xFF)] : null;
+    }
+
+    /**
+     * Gets the index operand of a push or pop.
+     *
+     * @param index the instruction index
+     * @return the segment index
+     */
+    public int segmentIndex(int index) {
+        return (int) (instructionAt(index) >>> 32);
+    }
+
+    /**
+     * Gets the local count of a function or the argument count of a call.
+     *
+     * @param index the instruction index
+     * @return the count
+     */
+    public int count(int index) {
+        return (int) ((instructionAt(index) >>> 16) & 0xFFFF);
+    }
+
+    /**
+     * Gets the label or function name operand.
+     *
+     * @param index the instruction index
+     * @return the name, or null for commands without one
+     */
+    public String name(int index) {
+        return op(index).hasName() ? names.get((int) (code[index] >>> 32)) : null;
+    }
+
+    /**
+     * Gets one instruction as it appears in a .vm file.
+     *
+     * @param index the instruction index
+     * @return the instruction text, without a line separator
+     */
+    public String instructionText(int index) {
+        Op op = op(index);
+        if (op == Op.PUSH || op == Op.POP) {
+            return op.getText() + " " + segment(index).getText() + " " + segmentIndex(index);
+        } else if (op == Op.FUNCTION || op == Op.CALL) {
+            return op.getText() + " " + name(index) + " " + count(index);
+        } else if (op.hasName()) {
+            return op.getText() + " " + name(index);
+        }
+        return op.getText();
+    }
+
+    /**
+     * Gets every instruction as it appears in a .vm file.
+     *
+     * @return the instruction lines
+     */
+    public List<String> toLines() {
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(instructionText(i));
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the code as the text of a .vm file, one instruction per line.
+     *
+     * @return the vm text
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder(size * 12);
+        for (int i = 0; i < size; i++) {
+            text.append(instructionText(i)).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Gets the name table, indexed by the ids packed into instructions.
+     *
+     * @return the names
+     */
+    List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Gets the id of a name operand, as indexed into getNames().
+     *
+     * @param index the instruction index
+     * @return the name id
+     */
+    int nameIdAt(int index) {
+        return (int) (instructionAt(index) >>> 32);
+    }
+
+    private long instructionAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Instruction " + index + " of " + size);
+        }
+        return code[index];
+    }
+
+    private void add(long instruction) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = instruction;
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private static long pack(Op op, Segment segment, int count, int operand) {
+        if (count < 0 || count > 0xFFFF) {
+            throw new IllegalArgumentException("Count out of range: " + count);
+        }
+        long packed = op.ordinal();
+        if (segment != null) {
+            packed |= (long) segment.ordinal() << 8;
+        }
+        packed |= (long) count << 16;
+        packed |= (long) operand << 32;
+        return packed;
+    }
+}
@@ -0,0 +1,250 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes vm code to a file as ASCII text with \n line endings. Instructions are encoded straight into a byte buffer
+ * that is flushed to a file channel whenever it fills, so no text is built up for the file as a whole and the output
+ * doesn't depend on the platform's charset or line separator. The same encoding can be checked against a file that's
+ * already there without writing anything, and a file can be replaced all at once so it's never seen half written.
+ * Created by michaelmeyer on 3/20/17.
+ */
+public class VMEmitter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[][] OP_BYTES = new byte[VMCode.Op.values().length][];
+    private static final byte[][] SEGMENT_BYTES = new byte[VMCode.Segment.values().length][];
+
+    static {
+        for (VMCode.Op op : VMCode.Op.values()) {
+            OP_BYTES[op.ordinal()] = op.getText().getBytes(StandardCharsets.US_ASCII);
+        }
+        for (VMCode.Segment segment : VMCode.Segment.values()) {
+            SEGMENT_BYTES[segment.ordinal()] = segment.getText().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private VMEmitter() {
+    }
+
+    /**
+     * Writes vm code to a file, replacing whatever was there.
+     *
+     * @param code the vm code
+     * @param path the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(VMCode code, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            write(code, channel);
+        }
+    }
+
+    /**
+     * Writes vm code to a temporary file next to the file, then moves it over the file in one step, so that the file
+     * is either what it was before or all of the new code, even if the compiler is stopped part way through. The
+     * file ends up with the permissions it had, or the ones a newly written file gets if it wasn't there.
+     *
+     * @param code the vm code
+     * @param path the file to replace
+     * @throws IOException if the file can't be written
+     */
+    public static void writeAtomically(VMCode code, Path path) throws IOException {
+        if (path.getFileSystem() != FileSystems.getDefault()) {
+            // an archive is only written out when it's closed, so a file in one is never seen half written anyway
+            write(code, path);
+            return;
+        }
+        Path temp = createTempBeside(path);
+        try {
+            write(code, temp);
+            copyPermissions(path, temp);
+            try {
+                Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                // the temporary file is in the same directory, so this only happens on file systems without renames
+                Files.move(temp, path, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /*
+        makes an empty temporary file in the same directory as the file. Files.createTempFile would make it readable
+        by its owner only, which the move would then pass on to the vm file, so it's made like any other file instead
+     */
+    private static Path createTempBeside(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        while (true) {
+            Path temp = dir.resolve("." + path.getFileName() + ThreadLocalRandom.current().nextLong() + ".tmp");
+            try {
+                FileChannel.open(temp, CREATE_NEW, WRITE).close();
+                return temp;
+            } catch (FileAlreadyExistsException e) {
+                // another name is picked
+            }
+        }
+    }
+
+    /*
+        gives the temporary file the permissions of the file it's replacing, where there is one and they're POSIX
+     */
+    private static void copyPermissions(Path path, Path temp) throws IOException {
+        PosixFileAttributeView existing = Files.getFileAttributeView(path, PosixFileAttributeView.class, NOFOLLOW_LINKS);
+        if (existing == null || !Files.isRegularFile(path, NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.setPosixFilePermissions(temp, existing.readAttributes().permissions());
+    }
+
+    /**
+     * Checks if a file already holds exactly what writing the vm code would put in it. The code is encoded as for
+     * writing but compared against the file a buffer at a time, stopping at the first difference.
+     *
+     * @param code the vm code
+     * @param path the file to check
+     * @return true if the file exists and has the same bytes
+     * @throws IOException if the file exists but can't be read
+     */
+    public static boolean matches(VMCode code, Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel existing = FileChannel.open(path, READ)) {
+            ComparingChannel comparing = new ComparingChannel(existing);
+            write(code, comparing);
+            return comparing.same && existing.position() == existing.size();
+        }
+    }
+
+    /**
+     * Writes vm code to an open channel.
+     *
+     * @param code the vm code
+     * @param channel where to write it
+     * @throws IOException if the channel can't be written
+     */
+    public static void write(VMCode code, WritableByteChannel channel) throws IOException {
+        List<String> names = code.getNames();
+        byte[][] nameBytes = new byte[names.size()][];
+        for (int i = 0; i < nameBytes.length; i++) {
+            nameBytes[i] = names.get(i).getBytes(StandardCharsets.US_ASCII);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int i = 0; i < code.size(); i++) {
+            // leave room for the longest possible instruction before encoding the next one
+            int longestName = code.op(i).hasName() ? nameBytes[code.nameIdAt(i)].length : 0;
+            if (buffer.remaining() < longestName + 32) {
+                flush(buffer, channel);
+                if (buffer.remaining() < longestName + 32) {
+                    buffer = ByteBuffer.allocate(longestName + 32);
+                }
+            }
+            VMCode.Op op = code.op(i);
+            buffer.put(OP_BYTES[op.ordinal()]);
+            if (op == VMCode.Op.PUSH || op == VMCode.Op.POP) {
+                buffer.put((byte) ' ').put(SEGMENT_BYTES[code.segment(i).ordinal()]).put((byte) ' ');
+                putNumber(buffer, code.segmentIndex(i));
+            } else if (op.hasName()) {
+                buffer.put((byte) ' ').put(nameBytes[code.nameIdAt(i)]);
+                if (op == VMCode.Op.FUNCTION || op == VMCode.Op.CALL) {
+                    buffer.put((byte) ' ');
+                    putNumber(buffer, code.count(i));
+                }
+            }
+            buffer.put((byte) '\n');
+        }
+        flush(buffer, channel);
+    }
+
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /*
+        writes a number's digits without making a String of it
+     */
+    private static void putNumber(ByteBuffer buffer, int number) {
+        if (number < 0) {
+            buffer.put((byte) '-');
+            number = -number;
+        }
+        int divisor = 1;
+        while (number / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + (number / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /*
+        a channel that reads back what's written from an existing file and notes whether it was the same, rather than
+        writing it. After the first difference nothing more is read
+     */
+    private static class ComparingChannel implements WritableByteChannel {
+        private final FileChannel existing;
+        private ByteBuffer expected = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean same = true;
+
+        private ComparingChannel(FileChannel existing) {
+            this.existing = existing;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (same) {
+                if (expected.capacity() < length) {
+                    expected = ByteBuffer.allocate(length);
+                }
+                expected.clear();
+                expected.limit(length);
+                while (expected.hasRemaining() && existing.read(expected) >= 0) {
+                    // keep reading until there's as much as was written or the file ends
+                }
+                expected.flip();
+                same = expected.equals(src);
+            }
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return existing.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // the existing file is closed by whoever opened it
+        }
+    }
+}
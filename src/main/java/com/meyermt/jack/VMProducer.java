@@ -5,23 +5,21 @@ package com.meyermt.jack;
  */
 public class VMProducer {
 
-    private static final String POP_PTR_0 = "pop pointer 0";
-
     public VMProducer() {
     }
 
-    public static String writeFunction(String subType, String functionName, String className, String varCount, String constructorCount) {
+    public static void writeFunction(VMCode vmCode, String subType, String functionName, String className, int varCount, int constructorCount) {
         if (subType.equals("constructor")) {
-            return "function " + className + "." + functionName + " 0" + System.lineSeparator() +
-                   "push constant " + constructorCount + System.lineSeparator() +
-                   "call Memory.alloc 1" + System.lineSeparator() +
-                   POP_PTR_0;
+            vmCode.function(className + "." + functionName, 0);
+            vmCode.push(VMCode.Segment.CONSTANT, constructorCount);
+            vmCode.call("Memory.alloc", 1);
+            vmCode.pop(VMCode.Segment.POINTER, 0);
         } else if (subType.equals("method")) {
-            return "function " + className + "." + functionName + " " + varCount + System.lineSeparator() +
-                   "push argument 0" + System.lineSeparator() +
-                   POP_PTR_0;
+            vmCode.function(className + "." + functionName, varCount);
+            vmCode.push(VMCode.Segment.ARGUMENT, 0);
+            vmCode.pop(VMCode.Segment.POINTER, 0);
         } else {
-            return "function " + className + "." + functionName + " " + varCount;
+            vmCode.function(className + "." + functionName, varCount);
         }
     }
 
@@ -0,0 +1,121 @@
+package com.meyermt.jack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps the compiler running and recompiles .jack files as they are created or changed, so edits don't pay for
+ * starting a new JVM. Events usually come in bursts while an editor saves, so changes are collected until the
+ * directory has been quiet for a moment and then each changed file is compiled once.
+ * Created by michaelmeyer on 3/17/17.
+ */
+public class WatchCompiler {
+
+    private static final long DEBOUNCE_MILLIS = 50;
+    private static final String JACK_EXT = ".jack";
+
+    private final Path watchDir;
+    private final String onlyFileName;
+    private final JackVMWriter writer;
+    private final ParallelCompiler compiler;
+
+    /**
+     * Instantiates a new watch compiler.
+     *
+     * @param inputPath the .jack file or directory of .jack files to watch
+     * @param writer the writer compiled classes are written out with
+     * @param compiler the compiler whose settings changed files are compiled with
+     */
+    public WatchCompiler(Path inputPath, JackVMWriter writer, ParallelCompiler compiler) {
+        Path absoluteInput = inputPath.toAbsolutePath().normalize();
+        if (absoluteInput.toString().endsWith(JACK_EXT)) {
+            this.watchDir = absoluteInput.getParent();
+            this.onlyFileName = absoluteInput.getFileName().toString();
+        } else {
+            this.watchDir = absoluteInput;
+            this.onlyFileName = null;
+        }
+        this.writer = writer;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Watches for changes and recompiles changed files until the thread is interrupted.
+     *
+     * @throws UncheckedIOException if the directory can't be watched
+     */
+    public void watch() {
+        try (WatchService watcher = watchDir.getFileSystem().newWatchService()) {
+            watchDir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            System.out.println("Watching " + watchDir + " for changes");
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<String> changed = new TreeSet<>();
+                WatchKey key = watcher.take();
+                collectChanges(key, changed);
+                // keep collecting until events stop coming so a burst of saves compiles each file once
+                while ((key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collectChanges(key, changed);
+                }
+                changed.forEach(this::recompile);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to watch directory: " + watchDir, e);
+        }
+    }
+
+    /*
+        adds the names of .jack files that were created or modified and resets the key so it keeps getting events
+     */
+    private void collectChanges(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, so recompile everything there is
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(watchDir, "*" + JACK_EXT)) {
+                    files.forEach(file -> addIfWatched(file.getFileName().toString(), changed));
+                } catch (IOException e) {
+                    System.out.println("Unable to list directory: " + watchDir);
+                }
+            } else {
+                addIfWatched(event.context().toString(), changed);
+            }
+        }
+        key.reset();
+    }
+
+    private void addIfWatched(String fileName, Set<String> changed) {
+        if (fileName.endsWith(JACK_EXT) && (onlyFileName == null || onlyFileName.equals(fileName))) {
+            changed.add(fileName);
+        }
+    }
+
+    /*
+        compiles and writes one file, reporting how long it took. Errors are reported and watching carries on
+     */
+    private void recompile(String fileName) {
+        Path file = watchDir.resolve(fileName);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map.Entry<String, VMCode> classToVMCode = compiler.compile(new JackSource(file));
+            writer.writeVMOut(classToVMCode);
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            System.out.println(String.format("%s -> %s in %.2f ms", fileName,
+                    writer.getVMFileName(classToVMCode.getKey()), millis));
+        } catch (RuntimeException e) {
+            System.out.println("Unable to compile " + fileName + ": " + e.getMessage());
+        }
+    }
+}